@@ -0,0 +1,127 @@
+package orientsec.bubble;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how fast many producer threads can hand Bubbles over to the thread that owns the
+ * {@link BubbleManager}, and how well the handed over calls are batched: the handoffs, drains
+ * and max backlog of each iteration are reported as secondary results.
+ * <p>
+ * Run with {@code -t} to change the number of producers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class HandoffBenchmark {
+
+    // Producers back off above this, so the owner thread is measured rather than the heap
+    private static final int MAX_BACKLOG = 4096;
+    private static final int BUBBLES_PER_THREAD = 64;
+
+    private LoopScheduler mScheduler;
+    private BubbleManager mManager;
+    // Whether a thread already reported the counters of the manager for this iteration
+    private final AtomicBoolean mReported = new AtomicBoolean();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mScheduler = new LoopScheduler();
+        mManager = new BubbleManager(mScheduler);
+        mReported.set(false);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        mScheduler.shutdown();
+    }
+
+    /**
+     * The counters of the manager over an iteration. JMH sums them over the threads, so only
+     * the first thread to get to the end of the iteration reports them, the others report 0.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long handoffs;
+        public long drains;
+        public long maxBacklog;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            handoffs = 0;
+            drains = 0;
+            maxBacklog = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(HandoffBenchmark benchmark) {
+            if (benchmark.mReported.compareAndSet(false, true)) {
+                final BubbleManager manager = benchmark.mManager;
+                handoffs = manager.getHandoffCount();
+                drains = manager.getDrainCount();
+                maxBacklog = manager.getMaxBacklog();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        FakeBubble[] bubbles;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(HandoffBenchmark benchmark) {
+            // Made ahead, so the threads measure the handoff rather than allocation
+            bubbles = new FakeBubble[BUBBLES_PER_THREAD];
+            for (int i = 0; i < bubbles.length; i++) {
+                bubbles[i] = new FakeBubble(benchmark.mManager, benchmark.mScheduler);
+            }
+            next = 0;
+        }
+
+        FakeBubble next() {
+            final FakeBubble bubble = bubbles[next];
+            next = (next + 1) % bubbles.length;
+            return bubble;
+        }
+    }
+
+    /**
+     * Shows a Bubble and dismisses it right away from a producer thread.
+     */
+    @Benchmark
+    public void showDismiss(Producer producer, Counters counters) {
+        while (mManager.getBacklog() > MAX_BACKLOG) {
+            Thread.yield();
+        }
+        final FakeBubble bubble = producer.next();
+        mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, null, bubble);
+        mManager.dismiss(bubble, Callback.DISMISS_EVENT_MANUAL);
+    }
+
+    /**
+     * Shows Bubbles that share a key from a producer thread, so all but the first are
+     * coalesced into the current one.
+     */
+    @Benchmark
+    public void showCoalesced(Producer producer, Counters counters) {
+        while (mManager.getBacklog() > MAX_BACKLOG) {
+            Thread.yield();
+        }
+        mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, "key", producer.next());
+    }
+}
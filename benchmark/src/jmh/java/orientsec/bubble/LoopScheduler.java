@@ -0,0 +1,73 @@
+package orientsec.bubble;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a single dedicated thread, like the main thread of an app, timed with
+ * {@link System#nanoTime()}.
+ */
+final class LoopScheduler implements BubbleScheduler {
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private volatile Thread mThread;
+    // Only touched on the loop thread, like the state of the manager
+    private final Map<Object, ScheduledFuture<?>> mDelayed = new IdentityHashMap<>();
+
+    LoopScheduler() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "bubble-loop");
+                thread.setDaemon(true);
+                mThread = thread;
+                return thread;
+            }
+        });
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mExecutor.prestartAllCoreThreads();
+    }
+
+    @Override
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    @Override
+    public void postDelayed(final Runnable task, final Object token, long delayMillis) {
+        mDelayed.put(token, mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mDelayed.remove(token);
+                task.run();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void cancel(Object token) {
+        final ScheduledFuture<?> future = mDelayed.remove(token);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+}
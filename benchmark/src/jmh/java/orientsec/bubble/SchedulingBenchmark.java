@@ -0,0 +1,110 @@
+package orientsec.bubble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the scheduling paths of {@link BubbleManager} on a single thread with a virtual
+ * clock, so every invocation does the same work and timeouts fire without waiting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulingBenchmark {
+
+    private static final int LONG_DURATION_MS = 6000;
+
+    @Param({"1", "3"})
+    public int maxVisible;
+
+    private VirtualScheduler mScheduler;
+    private BubbleManager mManager;
+    private FakeBubble[] mBubbles;
+    private FakeBubble mKeyed;
+    private int mNext;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mScheduler = new VirtualScheduler();
+        mManager = new BubbleManager(mScheduler);
+        mManager.setMaxVisible(maxVisible);
+        // Enough Bubbles to fill every slot and the whole queue
+        mBubbles = new FakeBubble[maxVisible + BubbleManager.DEFAULT_QUEUE_CAPACITY];
+        for (int i = 0; i < mBubbles.length; i++) {
+            mBubbles[i] = new FakeBubble(mManager, mScheduler);
+        }
+        mKeyed = new FakeBubble(mManager, mScheduler);
+        mNext = 0;
+    }
+
+    private FakeBubble next() {
+        final FakeBubble bubble = mBubbles[mNext];
+        mNext = (mNext + 1) % mBubbles.length;
+        return bubble;
+    }
+
+    /**
+     * A Bubble is shown on an idle manager, then dismissed by the user.
+     */
+    @Benchmark
+    public int showDismiss() {
+        final FakeBubble bubble = next();
+        mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, null, bubble);
+        mScheduler.runPending();
+        mManager.dismiss(bubble, Callback.DISMISS_EVENT_MANUAL);
+        mScheduler.runPending();
+        return bubble.dismissCount;
+    }
+
+    /**
+     * A Bubble is shown on an idle manager and times out.
+     */
+    @Benchmark
+    public int showTimeout() {
+        final FakeBubble bubble = next();
+        mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, null, bubble);
+        mScheduler.runPending();
+        mScheduler.advanceBy(LONG_DURATION_MS);
+        return bubble.dismissCount;
+    }
+
+    /**
+     * Every slot and the whole queue are filled with Bubbles of mixed priorities, then they
+     * are dismissed one after the other, each dismissal promoting the next queued Bubble.
+     */
+    @Benchmark
+    public int enqueueBurst() {
+        for (int i = 0; i < mBubbles.length; i++) {
+            mManager.show(Constant.LENGTH_LONG, i % 3 - 1, null, mBubbles[i]);
+        }
+        mScheduler.runPending();
+        for (FakeBubble bubble : mBubbles) {
+            mManager.dismiss(bubble, Callback.DISMISS_EVENT_MANUAL);
+            mScheduler.runPending();
+        }
+        return mScheduler.getPendingCount();
+    }
+
+    /**
+     * A keyed Bubble is shown again while visible, updating it in place and restarting its
+     * timeout.
+     */
+    @Benchmark
+    public int coalesce() {
+        if (mKeyed.showCount == 0) {
+            mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, "key", mKeyed);
+            mScheduler.runPending();
+        }
+        mManager.show(Constant.LENGTH_LONG, Constant.PRIORITY_NORMAL, "key", next());
+        return mScheduler.getPendingCount();
+    }
+}
@@ -0,0 +1,89 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Bubbles still current or queued when their Activity is destroyed don't keep it
+ * reachable.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BubbleLeakTest {
+
+    private static final int GC_ATTEMPTS = 20;
+
+    @Test
+    public void destroyedActivityIsCollectable() throws Exception {
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final WeakReference<Activity> activityRef = launchAndShowBubbles(instrumentation);
+
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        LeakTestActivity.sDestroyed = destroyed;
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activityRef.get().finish();
+            }
+        });
+        assertTrue("Activity not destroyed", destroyed.await(5, TimeUnit.SECONDS));
+        LeakTestActivity.sDestroyed = null;
+        instrumentation.waitForIdleSync();
+
+        for (int i = 0; i < GC_ATTEMPTS && activityRef.get() != null; i++) {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+            Thread.sleep(100);
+        }
+        assertNull("Destroyed Activity still reachable", activityRef.get());
+    }
+
+    /**
+     * Shows a Bubble that never times out and queues others behind it, then hands back only a
+     * weak reference to the Activity, so no local keeps it alive.
+     */
+    private static WeakReference<Activity> launchAndShowBubbles(Instrumentation instrumentation) {
+        final Intent intent = new Intent(instrumentation.getTargetContext(),
+                LeakTestActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final Activity activity = instrumentation.startActivitySync(intent);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Bubble.make(activity, Constant.LENGTH_INDEFINITE).setTitle("Current").show();
+                for (int i = 0; i < 3; i++) {
+                    Bubble.make(activity, Constant.LENGTH_LONG).setTitle("Queued " + i).show();
+                }
+            }
+        });
+        // And one from another thread, which goes through the handoff to the main thread
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bubble.submit(activity, new BubbleSpec.Builder(Constant.LENGTH_LONG)
+                        .setTitle("Submitted")
+                        .build());
+            }
+        });
+        producer.start();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        instrumentation.waitForIdleSync();
+        return new WeakReference<>(activity);
+    }
+}
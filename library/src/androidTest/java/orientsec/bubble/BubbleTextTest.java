@@ -0,0 +1,107 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import orientsec.bubble.library.R;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that text measured with {@link BubbleText} is accepted as is by the views of a Bubble,
+ * rather than measured again on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BubbleTextTest {
+
+    private Instrumentation mInstrumentation;
+    private Activity mActivity;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        final Intent intent = new Intent(mInstrumentation.getTargetContext(),
+                LeakTestActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mActivity = mInstrumentation.startActivitySync(intent);
+    }
+
+    @After
+    public void tearDown() {
+        mActivity.finish();
+    }
+
+    @Test
+    public void precomputedTitleIsAccepted() {
+        // Measured here, off the main thread, as an app would
+        final PrecomputedTextCompat title = BubbleText.precompute(
+                getParams(true), "Filled");
+        assertAccepted(R.id.tv_title, title);
+    }
+
+    @Test
+    public void precomputedContentIsAccepted() {
+        final PrecomputedTextCompat content = BubbleText.precompute(
+                getParams(false), "Bought 100 shares at 12.34");
+        assertAccepted(R.id.tv_content, content);
+    }
+
+    @Test
+    public void paramsAreReadOncePerContext() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertSame(BubbleText.getTitleParams(mActivity),
+                        BubbleText.getTitleParams(mActivity));
+                assertSame(BubbleText.getContentParams(mActivity),
+                        BubbleText.getContentParams(mActivity));
+            }
+        });
+    }
+
+    /**
+     * Reads the params on the main thread, as the Bubble would.
+     */
+    private PrecomputedTextCompat.Params getParams(final boolean title) {
+        final PrecomputedTextCompat.Params[] params = new PrecomputedTextCompat.Params[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                params[0] = title ? BubbleText.getTitleParams(mActivity)
+                        : BubbleText.getContentParams(mActivity);
+            }
+        });
+        return params[0];
+    }
+
+    /**
+     * Sets the text straight on the view of a Bubble, bypassing the fallback of
+     * {@link BubbleText#setText}: the view throws if the parameters don't match.
+     */
+    private void assertAccepted(final int id, final PrecomputedTextCompat text) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final ViewGroup parent = Bubble.findRootView(mActivity);
+                BubblePool.setRenderMode(Constant.RENDER_MODE_VIEWS);
+                final BubbleLayout layout = BubblePool.get(parent).acquire(parent);
+                final TextView view = layout.findViewById(id);
+                assertNotNull(view);
+                TextViewCompat.setPrecomputedText(view, text);
+            }
+        });
+    }
+}
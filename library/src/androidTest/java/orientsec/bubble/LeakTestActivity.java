@@ -0,0 +1,22 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An empty Activity that tells when it has been destroyed.
+ */
+public class LeakTestActivity extends Activity {
+
+    static volatile CountDownLatch sDestroyed;
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        final CountDownLatch destroyed = sDestroyed;
+        if (destroyed != null) {
+            destroyed.countDown();
+        }
+    }
+}
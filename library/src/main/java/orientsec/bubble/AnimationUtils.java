@@ -0,0 +1,15 @@
+package orientsec.bubble;
+
+import android.view.animation.Interpolator;
+import android.view.animation.LinearInterpolator;
+
+import androidx.interpolator.view.animation.FastOutSlowInInterpolator;
+
+final class AnimationUtils {
+
+    static final Interpolator FAST_OUT_SLOW_IN_INTERPOLATOR = new FastOutSlowInInterpolator();
+    static final Interpolator LINEAR_INTERPOLATOR = new LinearInterpolator();
+
+    private AnimationUtils() {
+    }
+}
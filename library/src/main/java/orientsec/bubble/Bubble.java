@@ -18,20 +18,19 @@ package orientsec.bubble;
 
 import android.app.Activity;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.SystemClock;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
 import android.widget.FrameLayout;
-import android.widget.ImageView;
-import android.widget.TextView;
 
-import orientsec.bubble.library.R;
+import java.io.File;
 
 
 /**
@@ -48,10 +47,16 @@ import orientsec.bubble.library.R;
  * <p>
  * To be notified when a snackbar has been shown or dismissed, you can provide a {@link Callback}
  * via {@link BubbleLayout#addCallback(orientsec.bubble.Callback)}.</p>
+ * <p>
+ * Views are recycled through a {@link BubblePool} once a Bubble has been hidden or coalesced
+ * into another one. From then on, every method of that {@link Bubble} does nothing, so a
+ * Bubble kept around never touches the Bubble its view has been reused for.</p>
  */
 public final class Bubble {
 
     private final BubbleLayout mView;
+    // The owner generation of mView when it was handed to this Bubble
+    private final int mViewGeneration;
     private final ViewGroup parent;
 
     @Nullable
@@ -60,6 +65,16 @@ public final class Bubble {
     private Bubble(ViewGroup parent, BubbleLayout bubbleLayout) {
         this.parent = parent;
         mView = bubbleLayout;
+        mViewGeneration = bubbleLayout.getGeneration();
+    }
+
+    /**
+     * Returns true once the view of this Bubble has been handed back for reuse: after it has
+     * been hidden, coalesced into another Bubble or released with its window. The view may
+     * belong to another Bubble by then, so this one must leave it alone.
+     */
+    private boolean isRecycled() {
+        return mView.getGeneration() != mViewGeneration;
     }
 
     /**
@@ -83,23 +98,90 @@ public final class Bubble {
                     + "Please provide a valid view.");
         }
 
-        final LayoutInflater inflater = LayoutInflater.from(parent.getContext());
-        final BubbleLayout bubbleLayout =
-                (BubbleLayout) inflater.inflate(R.layout.bubble_layout_content, parent, false);
-        final Bubble bubble = new Bubble(parent, bubbleLayout);
-        bubbleLayout.findViewById(R.id.btn_close).setOnClickListener(
-                new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        bubbleLayout.dismiss();
-                    }
-                }
-        );
-        bubbleLayout.setDuration(duration);
+        final boolean traced = BubbleTrace.begin("Bubble.make");
+        try {
+            final long start = SystemClock.uptimeMillis();
+            final BubbleLayout bubbleLayout = BubblePool.get(parent).acquire(parent);
+            bubbleLayout.setMadeTime(start);
+            final Bubble bubble = new Bubble(parent, bubbleLayout);
+            bubbleLayout.setDuration(duration);
+            return bubble;
+        } finally {
+            BubbleTrace.end(traced);
+        }
+    }
+
+    /**
+     * Make a Bubble from a {@link BubbleSpec}. Must be called on the main thread.
+     *
+     * @param activity The Activity to show this bubble.
+     * @param spec     What to show.
+     * @see #submit(Activity, BubbleSpec)
+     */
+    @NonNull
+    public static Bubble make(@NonNull Activity activity, @NonNull BubbleSpec spec) {
+        final Bubble bubble = make(activity, spec.duration);
+        final boolean traced = BubbleTrace.begin("Bubble.bind");
+        try {
+            bind(bubble, spec);
+        } finally {
+            BubbleTrace.end(traced);
+        }
         return bubble;
     }
 
-    private static ViewGroup findRootView(Activity activity) {
+    private static void bind(Bubble bubble, BubbleSpec spec) {
+        if (spec.title != null) {
+            bubble.setTitle(spec.title);
+        } else if (spec.titleRes != 0) {
+            bubble.setTitle(spec.titleRes);
+        }
+        if (spec.content != null) {
+            bubble.setContent(spec.content);
+        } else if (spec.contentRes != 0) {
+            bubble.setContent(spec.contentRes);
+        }
+        if (spec.iconSource != null) {
+            BubbleIconCache.load(bubble.mView, spec.iconSource);
+        } else if (spec.iconRes != 0) {
+            bubble.setIcon(spec.iconRes);
+        }
+        if (spec.action != null) {
+            bubble.setAction(spec.action);
+        }
+        for (Callback callback : spec.callbacks) {
+            bubble.mView.addCallback(callback);
+        }
+        bubble.setPriority(spec.priority).setKey(spec.key).setGroup(spec.group);
+    }
+
+    /**
+     * Show a Bubble described by a {@link BubbleSpec}. Can be called from any thread: specs
+     * submitted in a burst are made and shown together in a single pass on the main thread.
+     * Specs for an Activity that is finishing by then are ignored.
+     *
+     * @param activity The Activity to show this bubble.
+     * @param spec     What to show.
+     */
+    public static void submit(@NonNull Activity activity, @NonNull BubbleSpec spec) {
+        SpecDispatcher.submit(activity, spec);
+    }
+
+    /**
+     * Pre-inflate views for Bubbles shown in the given Activity, so that the first
+     * {@link #show()} only has to attach a ready view. The views are inflated one at a time
+     * while the main thread is idle.
+     * <p>
+     * Must be called on the main thread, typically from {@code Activity#onCreate}.
+     *
+     * @param activity The Activity that will show Bubbles.
+     * @param count    How many views to keep ready.
+     */
+    public static void prewarm(@NonNull Activity activity, int count) {
+        BubblePool.get(activity).prewarm(findRootView(activity), count);
+    }
+
+    static ViewGroup findRootView(Activity activity) {
         ViewGroup fallback = null;
         Window window = activity.getWindow();
         if (window != null) {
@@ -115,12 +197,15 @@ public final class Bubble {
     /**
      * Update the title in this {@link Bubble}.
      *
-     * @param message The new title for this {@link Bubble}.
+     * @param message The new title for this {@link Bubble}. May be measured ahead of time with
+     *                {@link BubbleText#precompute}.
      */
     @NonNull
     public Bubble setTitle(@NonNull CharSequence message) {
-        final TextView tv = mView.findViewById(R.id.tv_title);
-        tv.setText(message);
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setTitle(message);
         return this;
     }
 
@@ -137,12 +222,15 @@ public final class Bubble {
     /**
      * Update the content in this {@link Bubble}.
      *
-     * @param message The new content for this {@link Bubble}.
+     * @param message The new content for this {@link Bubble}. May be measured ahead of time with
+     *                {@link BubbleText#precompute}.
      */
     @NonNull
     public Bubble setContent(@NonNull CharSequence message) {
-        final TextView tv = mView.findViewById(R.id.tv_content);
-        tv.setText(message);
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setContent(message);
         return this;
     }
 
@@ -163,8 +251,10 @@ public final class Bubble {
      */
     @NonNull
     public Bubble setIcon(@NonNull Drawable drawable) {
-        final ImageView iv = mView.findViewById(R.id.iv_icon);
-        iv.setImageDrawable(drawable);
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setIcon(drawable);
         return this;
     }
 
@@ -175,12 +265,232 @@ public final class Bubble {
      */
     @NonNull
     public Bubble setIcon(@DrawableRes int resId) {
-        final ImageView iv = mView.findViewById(R.id.iv_icon);
-        iv.setImageResource(resId);
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setIcon(resId);
+        return this;
+    }
+
+    /**
+     * Update the icon in this {@link Bubble}, decoding it in the background at the size of the
+     * icon. Decoded icons are kept in the {@link BubbleIconCache}.
+     *
+     * @param resId The new icon for this {@link Bubble}.
+     */
+    @NonNull
+    public Bubble loadIcon(@DrawableRes int resId) {
+        if (isRecycled()) {
+            return this;
+        }
+        BubbleIconCache.load(mView, BubbleIconCache.fromResource(resId));
+        return this;
+    }
+
+    /**
+     * Update the icon in this {@link Bubble} from an image file, decoding it in the background.
+     *
+     * @param file The new icon for this {@link Bubble}.
+     * @see #loadIcon(int)
+     */
+    @NonNull
+    public Bubble loadIcon(@NonNull File file) {
+        if (isRecycled()) {
+            return this;
+        }
+        BubbleIconCache.load(mView, BubbleIconCache.fromFile(file));
+        return this;
+    }
+
+    /**
+     * Update the icon in this {@link Bubble} from a content or file URI, decoding it in the
+     * background.
+     *
+     * @param uri The new icon for this {@link Bubble}.
+     * @see #loadIcon(int)
+     */
+    @NonNull
+    public Bubble loadIcon(@NonNull Uri uri) {
+        if (isRecycled()) {
+            return this;
+        }
+        BubbleIconCache.load(mView, BubbleIconCache.fromUri(uri));
         return this;
     }
 
 
+    /**
+     * Set the priority of this {@link Bubble}. A Bubble waits in line behind the current one
+     * unless it has a strictly higher priority, in which case it replaces it.
+     *
+     * @param priority {@link Constant#PRIORITY_LOW}, {@link Constant#PRIORITY_NORMAL},
+     *                 {@link Constant#PRIORITY_HIGH} or any other value, higher first.
+     */
+    @NonNull
+    public Bubble setPriority(int priority) {
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setPriority(priority);
+        return this;
+    }
+
+    /**
+     * Set the coalescing key of this {@link Bubble}. When a Bubble with the same key is
+     * currently shown or queued, {@link #show()} updates that Bubble in place with the title,
+     * content, icon, action and callbacks of this one and restarts its timeout, instead of
+     * showing a new Bubble. This Bubble is then done with: its methods do nothing from then on,
+     * use the callbacks to follow the Bubble it was merged into.
+     *
+     * @param key The key, or null to never coalesce.
+     */
+    @NonNull
+    public Bubble setKey(@Nullable String key) {
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setKey(key);
+        return this;
+    }
+
+    /**
+     * Set the digest group of this {@link Bubble}. With a grouped {@link BubbleDigest}, only
+     * Bubbles of the same group are collapsed together.
+     *
+     * @param group The group, e.g. "fills", or null.
+     * @see #setDigest(BubbleDigest)
+     */
+    @NonNull
+    public Bubble setGroup(@Nullable String group) {
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setGroup(group);
+        return this;
+    }
+
+    /**
+     * Set how many Bubbles may wait behind the one currently shown. Each window has its own
+     * queue.
+     *
+     * @param capacity The maximum number of queued Bubbles, at least 1.
+     * @see #setOverflowPolicy(int)
+     */
+    public static void setQueueCapacity(int capacity) {
+        BubbleManagers.setQueueCapacity(capacity);
+    }
+
+    /**
+     * Set what happens to a Bubble shown while the queue is full. Dropped Bubbles are dismissed
+     * with {@link Callback#DISMISS_EVENT_DROPPED}.
+     *
+     * @param policy One of {@link Constant#OVERFLOW_DROP_OLDEST},
+     *               {@link Constant#OVERFLOW_DROP_LOWEST} or {@link Constant#OVERFLOW_REJECT}.
+     * @see #setQueueCapacity(int)
+     */
+    public static void setOverflowPolicy(@Constant.OverflowPolicy int policy) {
+        BubbleManagers.setOverflowPolicy(policy);
+    }
+
+    /**
+     * Set how Bubbles made from now on render their content.
+     * {@link Constant#RENDER_MODE_FLAT} draws everything in a single view, which saves the
+     * multi-pass measure of the nested ConstraintLayout and three child views per Bubble.
+     *
+     * @param renderMode {@link Constant#RENDER_MODE_VIEWS} or {@link Constant#RENDER_MODE_FLAT}.
+     */
+    public static void setRenderMode(@Constant.RenderMode int renderMode) {
+        BubblePool.setRenderMode(renderMode);
+    }
+
+    /**
+     * Set how many Bubbles may be visible at once in a window. Above one, Bubbles are arranged
+     * in a stack at the top of the window and a new Bubble no longer replaces the current one
+     * while a slot is free.
+     *
+     * @param maxVisible The maximum number of visible Bubbles per window, at least 1.
+     * @see #setStackMode(int)
+     * @see #setGlobalMaxVisible(int)
+     */
+    public static void setMaxVisible(int maxVisible) {
+        BubbleManagers.setMaxVisible(maxVisible);
+    }
+
+    /**
+     * Set how many Bubbles may be visible at once across all windows, e.g. 1 to show the
+     * Bubbles of side by side Activities one after the other. Each window keeps its own queue;
+     * when the limit is reached, windows take turns in the order their Bubbles became ready.
+     * May be called from any thread; the limit is applied on the main thread.
+     *
+     * @param maxVisible The maximum number of visible Bubbles in the app, or 0 for no limit
+     *                   besides {@link #setMaxVisible(int)}, the default.
+     */
+    public static void setGlobalMaxVisible(int maxVisible) {
+        BubbleManagers.setGlobalMaxVisible(maxVisible);
+    }
+
+    /**
+     * Set where Bubbles are added to the screen. {@link Constant#DISPLAY_MODE_PANEL} shows them in
+     * a panel window above the Activity window, so showing and hiding a Bubble lays out only the
+     * Bubble, not the whole view hierarchy of the Activity; Bubbles shown before the Activity
+     * window is attached still go to the decor view.
+     *
+     * @param mode {@link Constant#DISPLAY_MODE_DECOR}, the default, or
+     *             {@link Constant#DISPLAY_MODE_PANEL}.
+     */
+    public static void setDisplayMode(@Constant.DisplayMode int mode) {
+        BubblePanel.setMode(mode);
+    }
+
+    /**
+     * Set how a stack of visible Bubbles is arranged.
+     *
+     * @param mode {@link Constant#STACK_MODE_EXPANDED} or {@link Constant#STACK_MODE_COLLAPSED}.
+     * @see #setMaxVisible(int)
+     */
+    public static void setStackMode(@Constant.StackMode int mode) {
+        BubbleStack.setMode(mode);
+    }
+
+    /**
+     * Set the throttle that limits how fast Bubbles are admitted to the queue.
+     *
+     * @param throttle The throttle, or null to admit every Bubble.
+     */
+    public static void setThrottle(@Nullable BubbleThrottle throttle) {
+        BubbleManagers.setThrottle(throttle);
+    }
+
+    /**
+     * Set the digest that collapses bursts of Bubbles into a single summary Bubble.
+     *
+     * @param digest The digest, or null to show every Bubble on its own.
+     */
+    public static void setDigest(@Nullable BubbleDigest digest) {
+        BubbleManagers.setDigest(digest);
+    }
+
+    /**
+     * Set the listener that receives the measurements of the Bubble pipeline: inflate time,
+     * queue wait, time to visible, visible duration, dismiss events and drops.
+     *
+     * @param listener The listener, e.g. a {@link BubbleStats}, or null to stop measuring.
+     */
+    public static void setMetricsListener(@Nullable BubbleMetrics listener) {
+        BubbleManagers.setMetricsListener(listener);
+    }
+
+    /**
+     * Turn the trace sections of the Bubble pipeline on or off. When on, making, binding,
+     * showing and animating a Bubble show up as named sections in systrace and Perfetto, and
+     * each Bubble gets an async slice from {@link #show()} until it is hidden.
+     *
+     * @param enabled Whether to trace. Off by default.
+     */
+    public static void setTracingEnabled(boolean enabled) {
+        BubbleTrace.setEnabled(enabled);
+    }
+
     /**
      * Set the action to be displayed in this {@link Bubble}.
      *
@@ -188,14 +498,10 @@ public final class Bubble {
      */
     @NonNull
     public Bubble setAction(final View.OnClickListener listener) {
-        mView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                listener.onClick(v);
-                // Now dismiss the Bubble
-                mView.dispatchDismiss(Callback.DISMISS_EVENT_ACTION);
-            }
-        });
+        if (isRecycled()) {
+            return this;
+        }
+        mView.setAction(listener);
         return this;
     }
 
@@ -214,6 +520,9 @@ public final class Bubble {
     @Deprecated
     @NonNull
     public Bubble setCallback(Callback callback) {
+        if (isRecycled()) {
+            return this;
+        }
         // The logic in this method emulates what we had before support for multiple
         // registered callbacks.
         if (mCallback != null) {
@@ -228,18 +537,31 @@ public final class Bubble {
         return this;
     }
 
+    /**
+     * Adds a callback without replacing the one set with {@link #setCallback(Callback)}.
+     */
+    void addCallback(@NonNull Callback callback) {
+        if (!isRecycled()) {
+            mView.addCallback(callback);
+        }
+    }
+
     /**
      * Show the {@link BubbleLayout}.
      */
     public void show() {
-        mView.show(parent);
+        if (!isRecycled()) {
+            mView.show(parent);
+        }
     }
 
     /**
      * Dismiss the {@link BubbleLayout}.
      */
     public void dismiss() {
-        mView.dismiss();
+        if (!isRecycled()) {
+            mView.dismiss();
+        }
     }
 }
 
@@ -0,0 +1,263 @@
+package orientsec.bubble;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.provider.Settings;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+import android.view.accessibility.AccessibilityManager;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how Bubbles animate, from the state of the device and from how smoothly the last
+ * transitions ran:
+ * <ul>
+ * <li>no animation while an accessibility service is enabled or the animator duration scale is
+ * off;</li>
+ * <li>shorter animations in power save mode;</li>
+ * <li>shorter, then no animations when transitions keep dropping frames. The policy steps back
+ * up once transitions have not been dropping frames for a while.</li>
+ * </ul>
+ * Main thread only.
+ */
+public final class BubbleAnimationPolicy {
+
+    /**
+     * Notified when the animation level changes.
+     */
+    public interface Listener {
+        void onAnimationLevelChanged(@Constant.AnimationLevel int level);
+    }
+
+    // A transition is janky if more than this share of its frames were dropped
+    private static final float JANK_RATIO = 0.25f;
+    // Too short transitions say nothing about the frame rate
+    private static final int MIN_FRAMES = 5;
+    // Consecutive janky transitions before degrading one level
+    private static final int JANK_TRANSITIONS = 2;
+    // Time without jank before stepping back up one level
+    private static final long RECOVERY_MS = 30000;
+
+    private static BubbleAnimationPolicy sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private boolean mAccessibilityEnabled;
+    private float mAnimatorScale = 1f;
+    private boolean mPowerSave;
+    @Constant.AnimationLevel
+    private int mJankLevel = Constant.ANIMATION_LEVEL_FULL;
+    @Constant.AnimationLevel
+    private int mLevel;
+
+    // Frame monitoring, while at least one transition runs
+    private final long mFrameIntervalNanos;
+    private int mActiveTransitions;
+    private long mLastFrameNanos;
+    private int mFrames;
+    private int mDroppedFrames;
+    private int mJankyTransitions;
+    private Choreographer.FrameCallback mFrameCallback;
+
+    private final Runnable mRecovery = new Runnable() {
+        @Override
+        public void run() {
+            if (mJankLevel > Constant.ANIMATION_LEVEL_FULL) {
+                mJankLevel--;
+                update();
+                if (mJankLevel > Constant.ANIMATION_LEVEL_FULL) {
+                    mHandler.postDelayed(this, RECOVERY_MS);
+                }
+            }
+        }
+    };
+
+    /**
+     * Returns the policy of the app.
+     */
+    @MainThread
+    @NonNull
+    public static BubbleAnimationPolicy get(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new BubbleAnimationPolicy(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BubbleAnimationPolicy(Context context) {
+        mContext = context;
+
+        final AccessibilityManager accessibilityManager =
+                (AccessibilityManager) context.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        mAccessibilityEnabled = accessibilityManager.isEnabled();
+        accessibilityManager.addAccessibilityStateChangeListener(
+                new AccessibilityManager.AccessibilityStateChangeListener() {
+                    @Override
+                    public void onAccessibilityStateChanged(boolean enabled) {
+                        mAccessibilityEnabled = enabled;
+                        update();
+                    }
+                });
+
+        if (Build.VERSION.SDK_INT >= 17) {
+            mAnimatorScale = readAnimatorScale();
+            context.getContentResolver().registerContentObserver(
+                    Settings.Global.getUriFor(Settings.Global.ANIMATOR_DURATION_SCALE), false,
+                    new ContentObserver(mHandler) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            mAnimatorScale = readAnimatorScale();
+                            update();
+                        }
+                    });
+        }
+
+        if (Build.VERSION.SDK_INT >= 21) {
+            final PowerManager powerManager =
+                    (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mPowerSave = powerManager.isPowerSaveMode();
+            context.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    mPowerSave = powerManager.isPowerSaveMode();
+                    update();
+                }
+            }, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        }
+
+        final Display display = ((WindowManager) context.getSystemService(
+                Context.WINDOW_SERVICE)).getDefaultDisplay();
+        final float refreshRate = display.getRefreshRate();
+        mFrameIntervalNanos = (long) (1000000000L / (refreshRate >= 1f ? refreshRate : 60f));
+
+        mLevel = computeLevel();
+    }
+
+    private float readAnimatorScale() {
+        return Settings.Global.getFloat(mContext.getContentResolver(),
+                Settings.Global.ANIMATOR_DURATION_SCALE, 1f);
+    }
+
+    /**
+     * Returns how Bubbles animate right now.
+     */
+    @Constant.AnimationLevel
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Constant.AnimationLevel
+    private int computeLevel() {
+        if (mAccessibilityEnabled || mAnimatorScale == 0f) {
+            return Constant.ANIMATION_LEVEL_NONE;
+        }
+        final int level = mPowerSave
+                ? Constant.ANIMATION_LEVEL_REDUCED : Constant.ANIMATION_LEVEL_FULL;
+        return Math.max(level, mJankLevel);
+    }
+
+    private void update() {
+        final int level = computeLevel();
+        if (level != mLevel) {
+            mLevel = level;
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                mListeners.get(i).onAnimationLevelChanged(level);
+            }
+        }
+    }
+
+    /**
+     * Called when a Bubble transition starts. Frames are watched until every started
+     * transition has ended.
+     */
+    void onTransitionStart() {
+        if (mActiveTransitions++ > 0 || Build.VERSION.SDK_INT < 16) {
+            return;
+        }
+        mLastFrameNanos = 0;
+        mFrames = 0;
+        mDroppedFrames = 0;
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onFrame(frameTimeNanos);
+                    if (mActiveTransitions > 0) {
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Called when a Bubble transition ends or is cancelled.
+     */
+    void onTransitionEnd() {
+        if (mActiveTransitions == 0 || --mActiveTransitions > 0
+                || Build.VERSION.SDK_INT < 16) {
+            return;
+        }
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        evaluate();
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos != 0) {
+            // Round to the closest number of vsyncs, anything past the first one was dropped
+            final long interval = frameTimeNanos - mLastFrameNanos;
+            final int vsyncs = (int) ((interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos);
+            mFrames += Math.max(vsyncs, 1);
+            if (vsyncs > 1) {
+                mDroppedFrames += vsyncs - 1;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    private void evaluate() {
+        if (mFrames < MIN_FRAMES) {
+            return;
+        }
+        if (mDroppedFrames <= mFrames * JANK_RATIO) {
+            mJankyTransitions = 0;
+            return;
+        }
+        mJankyTransitions++;
+        if (mJankyTransitions >= JANK_TRANSITIONS
+                && mJankLevel < Constant.ANIMATION_LEVEL_NONE) {
+            mJankyTransitions = 0;
+            mJankLevel++;
+            update();
+        }
+        if (mJankLevel > Constant.ANIMATION_LEVEL_FULL) {
+            // Still dropping frames, wait longer before stepping back up
+            mHandler.removeCallbacks(mRecovery);
+            mHandler.postDelayed(mRecovery, RECOVERY_MS);
+        }
+    }
+}
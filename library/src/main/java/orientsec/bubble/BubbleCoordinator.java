@@ -0,0 +1,102 @@
+package orientsec.bubble;
+
+import java.util.ArrayList;
+
+/**
+ * Limits how many Bubbles may be visible at once across the {@link BubbleManager}s of every
+ * window. Each manager still runs its own queue and timeouts; it only asks the coordinator for a
+ * slot before showing the head of its queue, and waits in line when none is free. Slots are
+ * handed to the waiting managers in the order they asked.
+ * <p>
+ * Priorities are only compared within a window: a Bubble never preempts the Bubble of another
+ * window.
+ * <p>
+ * Confined to the main thread, like the managers using it.
+ */
+final class BubbleCoordinator {
+
+    private volatile int mMaxVisible;
+    private int mVisible;
+    private final ArrayList<BubbleManager> mWaiting = new ArrayList<>();
+    // The manager being handed a slot, it may take it even though others are in line
+    private BubbleManager mResuming;
+
+    BubbleCoordinator(int maxVisible) {
+        setMaxVisible(maxVisible);
+    }
+
+    /**
+     * Set how many Bubbles may be visible at once in the whole app. Raising it lets the waiting
+     * managers show their Bubbles; lowering it lets the extra Bubbles run until they are
+     * dismissed. Main thread only.
+     */
+    void setMaxVisible(int maxVisible) {
+        if (maxVisible < 1) {
+            throw new IllegalArgumentException("maxVisible < 1");
+        }
+        mMaxVisible = maxVisible;
+        wakeUp();
+    }
+
+    int getMaxVisible() {
+        return mMaxVisible;
+    }
+
+    /**
+     * Returns how many slots are taken.
+     */
+    int getVisibleCount() {
+        return mVisible;
+    }
+
+    /**
+     * Takes a slot for a Bubble of {@code manager}. If none is free, the manager is put in line
+     * and resumed once one is.
+     *
+     * @return true if a slot was taken, to give back with {@link #release()}.
+     */
+    boolean tryAcquire(BubbleManager manager) {
+        if (mVisible < mMaxVisible && (mWaiting.isEmpty() || manager == mResuming)) {
+            mVisible++;
+            return true;
+        }
+        if (!mWaiting.contains(manager)) {
+            mWaiting.add(manager);
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a slot taken with {@link #tryAcquire(BubbleManager)}.
+     */
+    void release() {
+        if (mVisible > 0) {
+            mVisible--;
+        }
+        wakeUp();
+    }
+
+    /**
+     * Stops waiting for a slot, e.g. because the window of the manager is gone.
+     */
+    void remove(BubbleManager manager) {
+        mWaiting.remove(manager);
+    }
+
+    private void wakeUp() {
+        if (mResuming != null) {
+            // Already handing out slots further up the stack
+            return;
+        }
+        // A resumed manager either takes a slot or, if there are none left, gets back in line
+        // behind the others, so this ends
+        while (mVisible < mMaxVisible && !mWaiting.isEmpty()) {
+            mResuming = mWaiting.remove(0);
+            try {
+                mResuming.resume();
+            } finally {
+                mResuming = null;
+            }
+        }
+    }
+}
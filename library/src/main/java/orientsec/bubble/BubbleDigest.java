@@ -0,0 +1,119 @@
+package orientsec.bubble;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Collapses bursts of Bubbles into a single summary Bubble, e.g. "12 new fills".
+ * <p>
+ * A Bubble shown while another one, shown less than the window ago, is still queued or visible
+ * is not shown on its own: it is collapsed into that one, which becomes a summary of the burst.
+ * The summary takes its title from the {@link Formatter}, or from the
+ * {@code bubble_digest_summary} plurals resource by default, lists the collapsed Bubbles as its
+ * details, expanded by tapping it, and takes over their callbacks. Only the first Bubble of a
+ * burst is ever attached and animated; the views of the others go straight back to the pool.
+ * A Bubble more important than the summary is not collapsed into it, and is shown on its own.
+ * <p>
+ * When grouped, only Bubbles of the same group are collapsed together, and Bubbles without a
+ * group are always shown on their own. Bubbles with a coalescing key that matches a queued or
+ * visible Bubble update it in place as usual.
+ *
+ * @see Bubble#setDigest(BubbleDigest)
+ * @see Bubble#setGroup(String)
+ */
+public final class BubbleDigest {
+
+    /**
+     * Builds the title of a summary Bubble.
+     */
+    public interface Formatter {
+        /**
+         * @param group The group of the collapsed Bubbles, or null if the digest isn't grouped
+         *              or they have none.
+         * @param count How many Bubbles have been collapsed into the summary, itself included.
+         */
+        @NonNull
+        CharSequence format(@Nullable String group, int count);
+    }
+
+    private final long mWindowMs;
+    private final boolean mGrouped;
+    // Null for the default title, formatted by the Bubble from its resources
+    private Formatter mFormatter;
+
+    private volatile long mCollapsedCount;
+
+    /**
+     * @param windowMs How long after the first Bubble of a burst later ones are collapsed into
+     *                 it, in milliseconds.
+     * @param grouped  Whether to only collapse Bubbles of the same group.
+     */
+    public BubbleDigest(long windowMs, boolean grouped) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs <= 0");
+        }
+        mWindowMs = windowMs;
+        mGrouped = grouped;
+    }
+
+    /**
+     * Set how summary titles are built, or null for the default: the
+     * {@code bubble_digest_summary} plurals resource, or {@code bubble_digest_summary_group}
+     * given the group, e.g. "12 new fills" for the group "fills". Override those to translate
+     * the default titles.
+     */
+    @NonNull
+    public BubbleDigest setFormatter(@Nullable Formatter formatter) {
+        mFormatter = formatter;
+        return this;
+    }
+
+    public long getWindowMs() {
+        return mWindowMs;
+    }
+
+    public boolean isGrouped() {
+        return mGrouped;
+    }
+
+    /**
+     * Return how many Bubbles have been collapsed into a summary instead of being shown.
+     */
+    public long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    /**
+     * Returns true if a Bubble of {@code group} may be collapsed into one of
+     * {@code summaryGroup} shown at {@code summaryTime}.
+     */
+    boolean canCollapse(@Nullable String group, @Nullable String summaryGroup,
+                        long summaryTime, long now) {
+        if (now - summaryTime > mWindowMs) {
+            return false;
+        }
+        return !mGrouped || (group != null && group.equals(summaryGroup));
+    }
+
+    /**
+     * Returns the group the summary of Bubbles of {@code group} is titled after, null if the
+     * digest isn't grouped.
+     */
+    @Nullable
+    String summaryGroup(@Nullable String group) {
+        return mGrouped ? group : null;
+    }
+
+    /**
+     * Returns the title of a summary from the formatter, or null for the default one.
+     */
+    @Nullable
+    CharSequence format(@Nullable String group, int count) {
+        final Formatter formatter = mFormatter;
+        return formatter != null ? formatter.format(summaryGroup(group), count) : null;
+    }
+
+    void onCollapsed() {
+        mCollapsedCount++;
+    }
+}
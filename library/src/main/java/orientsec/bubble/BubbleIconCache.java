@@ -0,0 +1,311 @@
+package orientsec.bubble;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Loads Bubble icons off the main thread, decoded at the size of the icon view, and keeps them
+ * in a size-bounded LRU cache shared by all Bubbles.
+ * <p>
+ * The cache trims itself when the system is low on memory; {@link #trimMemory(int)} can also be
+ * called directly.
+ *
+ * @see Bubble#loadIcon(int)
+ * @see Bubble#loadIcon(File)
+ * @see Bubble#loadIcon(Uri)
+ */
+public final class BubbleIconCache {
+
+    private static final String TAG = "BubbleIconCache";
+
+    private static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(
+            (int) Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 32)) {
+        @Override
+        protected int sizeOf(@NonNull String key, @NonNull Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "bubble-icon");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static final AtomicInteger sHitCount = new AtomicInteger();
+    private static final AtomicInteger sMissCount = new AtomicInteger();
+    private static volatile boolean sTrimRegistered;
+
+    private BubbleIconCache() {
+    }
+
+    /**
+     * Return how many icons were found in the cache.
+     */
+    public static int getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * Return how many icons had to be decoded.
+     */
+    public static int getMissCount() {
+        return sMissCount.get();
+    }
+
+    /**
+     * Return the size of the cached bitmaps, in bytes.
+     */
+    public static int size() {
+        return sCache.size();
+    }
+
+    /**
+     * Return the maximum size of the cached bitmaps, in bytes.
+     */
+    public static int getMaxSize() {
+        return sCache.maxSize();
+    }
+
+    /**
+     * Set the maximum size of the cached bitmaps, in bytes.
+     */
+    public static void setMaxSize(int maxBytes) {
+        sCache.resize(maxBytes);
+    }
+
+    /**
+     * Release cached bitmaps according to a {@link ComponentCallbacks2} trim level.
+     */
+    public static void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            sCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            sCache.trimToSize(sCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Drop all cached bitmaps.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Shows the icon in the view, from the cache if possible, or once it has been decoded in the
+     * background. A later icon set on the view wins over a pending load.
+     */
+    static void load(@NonNull final BubbleLayout view, @NonNull final Source source) {
+        final Context context = view.getContext().getApplicationContext();
+        registerTrim(context);
+        final int size = view.getResources().getDimensionPixelSize(R.dimen.bubble_icon_size);
+        final String key = source.key + '@' + size;
+        final Bitmap cached = sCache.get(key);
+        if (cached != null) {
+            sHitCount.incrementAndGet();
+            view.setIcon(new BitmapDrawable(view.getResources(), cached));
+            return;
+        }
+        sMissCount.incrementAndGet();
+        view.setIcon((Drawable) null);
+        final int generation = view.getIconGeneration();
+        view.setPendingIcon(source);
+        // Don't keep the view, and its Activity, while decoding
+        final WeakReference<BubbleLayout> viewRef = new WeakReference<>(view);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Decoded by an earlier load of the same icon, e.g. one handed on from a
+                // coalesced Bubble
+                Bitmap bitmap = sCache.get(key);
+                if (bitmap == null) {
+                    try {
+                        bitmap = source.decode(context, size);
+                    } catch (IOException | RuntimeException e) {
+                        Log.w(TAG, "Failed to decode icon " + source.key, e);
+                    }
+                    if (bitmap == null) {
+                        return;
+                    }
+                    sCache.put(key, bitmap);
+                }
+                final Bitmap result = bitmap;
+                sHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        final BubbleLayout view = viewRef.get();
+                        if (view != null && view.getIconGeneration() == generation) {
+                            view.setIcon(new BitmapDrawable(view.getResources(), result));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void registerTrim(Context context) {
+        if (sTrimRegistered) {
+            return;
+        }
+        sTrimRegistered = true;
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Returns the largest power of two that keeps both sides at least {@code size}.
+     */
+    private static int sampleSize(int width, int height, int size) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= size && height / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Where an icon comes from.
+     */
+    abstract static class Source {
+        final String key;
+
+        Source(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Decodes the icon at roughly {@code size}. Runs on a background thread.
+         */
+        abstract Bitmap decode(Context context, int size) throws IOException;
+    }
+
+    static Source fromResource(final int resId) {
+        return new Source("res:" + resId) {
+            @Override
+            Bitmap decode(Context context, int size) {
+                final Resources res = context.getResources();
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeResource(res, resId, options);
+                if (options.outWidth > 0 && options.outHeight > 0) {
+                    options.inJustDecodeBounds = false;
+                    options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+                    return BitmapFactory.decodeResource(res, resId, options);
+                }
+                // Not a bitmap, e.g. a vector or shape drawable: render it at the target size
+                final Drawable drawable = ContextCompat.getDrawable(context, resId);
+                if (drawable == null) {
+                    return null;
+                }
+                final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                drawable.setBounds(0, 0, size, size);
+                drawable.draw(new Canvas(bitmap));
+                return bitmap;
+            }
+        };
+    }
+
+    static Source fromFile(final File file) {
+        return new Source("file:" + file.getAbsolutePath()) {
+            @Override
+            Bitmap decode(Context context, int size) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+                return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
+        };
+    }
+
+    static Source fromUri(final Uri uri) {
+        return new Source("uri:" + uri) {
+            @Override
+            Bitmap decode(Context context, int size) throws IOException {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decodeStream(context, uri, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+                return decodeStream(context, uri, options);
+            }
+        };
+    }
+
+    private static Bitmap decodeStream(Context context, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        final InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+}
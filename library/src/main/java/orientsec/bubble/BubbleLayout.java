@@ -5,12 +5,20 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import android.text.Spanned;
+import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.core.view.ViewCompat;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
@@ -18,9 +26,9 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewParent;
-import android.view.accessibility.AccessibilityManager;
 import android.widget.FrameLayout;
-import android.widget.OverScroller;
+import android.widget.ImageView;
+import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,6 +40,7 @@ import static orientsec.bubble.Callback.DISMISS_EVENT_CONSECUTIVE;
 
 public class BubbleLayout extends FrameLayout {
     private static final int ANIMATION_DURATION = 250;
+    private static final int REDUCED_ANIMATION_DURATION = 120;
 
     private ViewGroup mTargetParent;
 
@@ -45,7 +54,7 @@ public class BubbleLayout extends FrameLayout {
                 case MSG_DISMISS:
                     int event = message.arg1;
                     BubbleLayout bubbleLayout = (BubbleLayout) message.obj;
-                    if (event == DISMISS_EVENT_CONSECUTIVE) {
+                    if (event == DISMISS_EVENT_CONSECUTIVE && !bubbleLayout.isStacked()) {
                         bubbleLayout.setVisibility(View.GONE);
                     }
                     bubbleLayout.hideView(event);
@@ -54,6 +63,11 @@ public class BubbleLayout extends FrameLayout {
             return false;
         }
     });
+    // How many collapsed Bubbles a digest summary lists when expanded
+    private static final int DIGEST_MAX_DETAILS = 8;
+    // The content lines of a Bubble, as in the layouts
+    private static final int CONTENT_MAX_LINES = 2;
+
     private static final int MSG_SHOW = 0;
     private static final int MSG_DISMISS = 1;
 
@@ -63,13 +77,77 @@ public class BubbleLayout extends FrameLayout {
     private static final boolean USE_OFFSET_API = (Build.VERSION.SDK_INT >= 16)
             && (Build.VERSION.SDK_INT <= 19);
 
+    // Since Lollipop a translation only updates the properties of the view's RenderNode, so a
+    // layered view is moved without its display list being recorded again
+    private static final boolean USE_HARDWARE_LAYER = Build.VERSION.SDK_INT >= 21;
+
+    @Constant.AnimationMode
+    private int mAnimationMode;
+    private int mLayerCount;
+    private int mSavedLayerType;
+
     private int mDuration;
 
+    private int mPriority = Constant.PRIORITY_NORMAL;
+
+    private String mKey;
+
+    private String mGroup;
+
+    private int mIconGeneration;
+    // The icon being decoded for this view, if any
+    private BubbleIconCache.Source mPendingIcon;
+
+    // Bumped every time the view is handed back, so a Bubble can tell it no longer owns it
+    private int mGeneration;
+
+    // When the Bubble was made and when it became visible, for the metrics
+    private long mMadeTime;
+    private long mShownTime;
+
+    // The async trace slice covering the Bubble from show() until it is hidden
+    private static final String TRACE_LIFETIME = "Bubble";
+    private int mTraceCookie;
+
+    private View.OnClickListener mActionListener;
+
+    // The Bubbles collapsed into this one while it is a digest summary, newest last, and how
+    // many fell off the front of the list
+    private ArrayList<CharSequence> mDigestDetails;
+    private int mDigestOverflow;
+    private boolean mDigestExpanded;
+
+    /**
+     * Where the current show is, so that repeated layout passes, messages and animation ends
+     * (e.g. a relayout after an in-place update) never restart the entrance nor call back twice.
+     */
+    private final BubbleShowState mShowState = new BubbleShowState();
+
     private List<Callback> mCallbacks;
 
-    private final AccessibilityManager mAccessibilityManager;
+    private TextView mTitleView;
+    private TextView mContentView;
+    private ImageView mIconView;
+    private View mCloseButton;
+
+    @Constant.RenderMode
+    private final int mRenderMode;
+    @Nullable
+    private final FlatRenderer mFlatRenderer;
+    private boolean mCloseTouched;
+
+    /**
+     * Whether this view currently sits in a {@link BubblePool}, waiting to be reused.
+     */
+    boolean mPooled;
+
+    private final BubbleAnimationPolicy mAnimationPolicy;
+
+    private final ManagerCallback mManagerCallback = new ManagerCallback();
+    // The manager of the window this view is shown in, set by show(ViewGroup)
+    private BubbleManager mManager;
 
-    private final BubbleManager.Callback mManagerCallback = new BubbleManager.Callback() {
+    private class ManagerCallback implements BubbleManager.Callback {
         @Override
         public void show() {
             sHandler.sendMessage(sHandler.obtainMessage(MSG_SHOW, BubbleLayout.this));
@@ -80,14 +158,49 @@ public class BubbleLayout extends FrameLayout {
             sHandler.sendMessage(sHandler.obtainMessage(MSG_DISMISS, event, 0,
                     BubbleLayout.this));
         }
-    };
+
+        @Override
+        public void update(BubbleManager.Callback source) {
+            final BubbleLayout sourceLayout = ((ManagerCallback) source).getLayout();
+            bindFrom(sourceLayout);
+            // Pooled right away, which also cuts the source Bubble off from the view: the
+            // next Bubble.make() may get it while the caller still holds the source
+            sourceLayout.recycle();
+        }
+
+        @Override
+        public void collapse(BubbleManager.Callback source, int count, String group,
+                             CharSequence title) {
+            final BubbleLayout sourceLayout = ((ManagerCallback) source).getLayout();
+            if (title == null) {
+                title = group != null
+                        ? getResources().getQuantityString(R.plurals.bubble_digest_summary_group,
+                                count, count, group)
+                        : getResources().getQuantityString(R.plurals.bubble_digest_summary,
+                                count, count);
+            }
+            collapseFrom(sourceLayout, title);
+            // Never attached, the next Bubble of the burst reuses it. As for an update, the
+            // source Bubble is cut off from the view first
+            sourceLayout.recycle();
+        }
+
+        @Override
+        public void release() {
+            BubbleLayout.this.release();
+        }
+
+        BubbleLayout getLayout() {
+            return BubbleLayout.this;
+        }
+    }
 
     /**
      * Returns whether this {@link BubbleLayout} is currently being shown, or is queued
-     * to be shown next.
+     * to be shown.
      */
     private boolean isShownOrQueued() {
-        return BubbleManager.getInstance().isCurrentOrNext(mManagerCallback);
+        return mManager != null && mManager.isCurrentOrQueued(mManagerCallback);
     }
 
     public BubbleLayout(Context context) {
@@ -101,35 +214,93 @@ public class BubbleLayout extends FrameLayout {
             ViewCompat.setElevation(this, a.getDimensionPixelSize(
                     R.styleable.BubbleLayout_elevation, 0));
         }
+        mAnimationMode = a.getInt(R.styleable.BubbleLayout_bubbleAnimationMode,
+                Constant.ANIMATION_MODE_STANDARD);
+        mRenderMode = a.getInt(R.styleable.BubbleLayout_bubbleRenderMode,
+                Constant.RENDER_MODE_VIEWS);
         a.recycle();
 
+        if (mRenderMode == Constant.RENDER_MODE_FLAT) {
+            mFlatRenderer = new FlatRenderer(this);
+            setWillNotDraw(false);
+        } else {
+            mFlatRenderer = null;
+        }
+
         setClickable(true);
         ViewCompat.setAccessibilityLiveRegion(this,
                 ViewCompat.ACCESSIBILITY_LIVE_REGION_POLITE);
         ViewCompat.setImportantForAccessibility(this,
                 ViewCompat.IMPORTANT_FOR_ACCESSIBILITY_YES);
 
-        mAccessibilityManager = (AccessibilityManager)
-                context.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        mAnimationPolicy = BubbleAnimationPolicy.get(context);
 
         ViewConfiguration configuration = ViewConfiguration.get(getContext());
         mScaledTouchSlop = configuration.getScaledTouchSlop();
         mScaledMinimumFlingVelocity = configuration.getScaledMinimumFlingVelocity() * 3;
         mScaledMaximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+    }
+
+    @Override
+    protected void onFinishInflate() {
+        super.onFinishInflate();
+        mTitleView = findViewById(R.id.tv_title);
+        mContentView = findViewById(R.id.tv_content);
+        mIconView = findViewById(R.id.iv_icon);
+        mCloseButton = findViewById(R.id.btn_close);
+        if (mCloseButton != null) {
+            mCloseButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    dismiss();
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mFlatRenderer == null) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+        final int contentHeight = mFlatRenderer.measure(
+                Math.max(0, width - getPaddingLeft() - getPaddingRight()));
+        final int height = contentHeight + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(Math.max(height, getSuggestedMinimumHeight()),
+                heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mFlatRenderer != null) {
+            final int saveCount = canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            mFlatRenderer.draw(canvas);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    @Override
+    protected boolean verifyDrawable(@NonNull Drawable who) {
+        return super.verifyDrawable(who)
+                || (mFlatRenderer != null && mFlatRenderer.verifyDrawable(who));
+    }
 
-        mScroller = new OverScroller(getContext());
+    /**
+     * Return how this view renders its content.
+     */
+    @Constant.RenderMode
+    public int getRenderMode() {
+        return mRenderMode;
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         super.onLayout(changed, l, t, r, b);
-        if (shouldAnimate()) {
-            // If animations are enabled, animate it in
-            animateViewIn();
-        } else {
-            // Else if anims are disabled just call back now
-            onViewShown();
-        }
+        enter(getHeight());
     }
 
     @Override
@@ -156,8 +327,24 @@ public class BubbleLayout extends FrameLayout {
     }
 
     private void onViewHidden(int event) {
+        if (!mShowState.hide()) {
+            // Already hidden, e.g. both by its exit and by being detached
+            return;
+        }
         // First tell the BubbleManager that it has been dismissed
-        BubbleManager.getInstance().onDismissed(mManagerCallback);
+        final BubbleManager manager = mManager;
+        final boolean traced = BubbleTrace.begin("BubbleManager.onDismissed");
+        try {
+            manager.onDismissed(mManagerCallback);
+        } finally {
+            BubbleTrace.end(traced);
+        }
+        endLifetimeTrace();
+        final BubbleMetrics metrics = manager.getMetricsListener();
+        if (metrics != null) {
+            metrics.onDismissed(event,
+                    mShownTime > 0 ? SystemClock.uptimeMillis() - mShownTime : -1);
+        }
         if (mCallbacks != null) {
             // Notify the callbacks. Do that from the end of the list so that if a callback
             // removes itself as the result of being called, it won't mess up with our iteration
@@ -171,98 +358,467 @@ public class BubbleLayout extends FrameLayout {
         if (parent instanceof ViewGroup) {
             ((ViewGroup) parent).removeView(this);
         }
+        // The view is no longer used by anyone, hand it back for the next Bubble
+        recycle();
     }
 
-    private void showView() {
-        if (getParent() == null) {
-            mTargetParent.addView(this);
+    /**
+     * Hands this view back to the pool of its target parent.
+     */
+    private void recycle() {
+        mGeneration++;
+        if (mTargetParent != null) {
+            BubblePool.get(mTargetParent).release(this);
         }
+    }
 
-        if (ViewCompat.isLaidOut(this)) {
-            if (shouldAnimate()) {
-                // If animations are enabled, animate it in
-                animateViewIn();
-            } else {
-                // Else if anims are disabled just call back now
-                onViewShown();
+    /**
+     * Lets go of this view without animating or calling back, because its window is being
+     * destroyed. Nothing scheduled on the main thread keeps it, nor its window, reachable
+     * afterwards.
+     */
+    void release() {
+        mGeneration++;
+        sHandler.removeMessages(MSG_SHOW, this);
+        sHandler.removeMessages(MSG_DISMISS, this);
+        // Reset first, so the detach below doesn't look like a dismissal
+        reset();
+        final ViewParent parent = getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(this);
+        }
+    }
+
+    /**
+     * Clears everything a {@link Bubble} may have bound to this view, so it can be handed out
+     * again by a {@link BubblePool}.
+     */
+    void reset() {
+        mVerticalMotion.abort();
+        mHorizontalMotion.abort();
+        setTranslationX(0);
+        setTranslationY(0);
+        setVisibility(View.VISIBLE);
+        setOnClickListener(null);
+        mActionListener = null;
+        setClickable(true);
+        if (mCallbacks != null) {
+            mCallbacks.clear();
+        }
+        mDuration = Constant.LENGTH_LONG;
+        mPriority = Constant.PRIORITY_NORMAL;
+        mKey = null;
+        mGroup = null;
+        if (mDigestDetails != null) {
+            mDigestDetails.clear();
+        }
+        mDigestOverflow = 0;
+        mDigestExpanded = false;
+        setContentMaxLines(CONTENT_MAX_LINES);
+        mTargetParent = null;
+        mManager = null;
+        mDragging = false;
+        mShowState.reset();
+        mMadeTime = 0;
+        mShownTime = 0;
+        // Coalesced into another Bubble, or otherwise never hidden
+        endLifetimeTrace();
+        setTitle("");
+        setContent("");
+        setIcon(null);
+    }
+
+    void setTitle(@NonNull CharSequence title) {
+        final boolean traced = BubbleTrace.begin("Bubble.setTitle");
+        try {
+            if (mFlatRenderer != null) {
+                mFlatRenderer.setTitle(title);
+                onFlatContentChanged();
+            } else if (mTitleView != null) {
+                BubbleText.setText(mTitleView, title);
             }
+        } finally {
+            BubbleTrace.end(traced);
         }
     }
 
-    private void animateViewIn() {
-        final int viewHeight = getHeight();
-        if (USE_OFFSET_API) {
-            ViewCompat.offsetTopAndBottom(this, -viewHeight);
-        } else {
-            setTranslationY(-viewHeight);
+    @NonNull
+    CharSequence getTitle() {
+        if (mFlatRenderer != null) {
+            return mFlatRenderer.getTitle();
         }
-        final ValueAnimator animator = new ValueAnimator();
-        animator.setIntValues(-viewHeight, 0);
-        animator.setInterpolator(Constant.FAST_OUT_SLOW_IN_INTERPOLATOR);
-        animator.setDuration(ANIMATION_DURATION);
-        animator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationStart(Animator animator) {
+        return mTitleView != null ? mTitleView.getText() : "";
+    }
+
+    void setContent(@NonNull CharSequence content) {
+        final boolean traced = BubbleTrace.begin("Bubble.setContent");
+        try {
+            if (mFlatRenderer != null) {
+                mFlatRenderer.setContent(content);
+                onFlatContentChanged();
+            } else if (mContentView != null) {
+                BubbleText.setText(mContentView, content);
             }
+        } finally {
+            BubbleTrace.end(traced);
+        }
+    }
+
+    @NonNull
+    CharSequence getContent() {
+        if (mFlatRenderer != null) {
+            return mFlatRenderer.getContent();
+        }
+        return mContentView != null ? mContentView.getText() : "";
+    }
+
+    void setIcon(@Nullable Drawable drawable) {
+        mIconGeneration++;
+        mPendingIcon = null;
+        if (mFlatRenderer != null) {
+            mFlatRenderer.setIcon(drawable);
+            invalidate();
+        } else if (mIconView != null) {
+            mIconView.setImageDrawable(drawable);
+        }
+    }
+
+    void setIcon(@DrawableRes int resId) {
+        if (mFlatRenderer != null) {
+            setIcon(ContextCompat.getDrawable(getContext(), resId));
+        } else if (mIconView != null) {
+            mIconGeneration++;
+            mPendingIcon = null;
+            mIconView.setImageResource(resId);
+        }
+    }
+
+    /**
+     * Changes every time the view is recycled or released. A {@link Bubble} only uses its view
+     * while this is the value it got it with.
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Changes every time the icon is set, so a late asynchronous load can tell it was
+     * overridden (or the view recycled) in the meantime.
+     */
+    int getIconGeneration() {
+        return mIconGeneration;
+    }
+
+    /**
+     * Records the icon being decoded for the current icon generation, so it can be handed on
+     * if this view is coalesced into another one before it arrives.
+     */
+    void setPendingIcon(BubbleIconCache.Source source) {
+        mPendingIcon = source;
+    }
 
+    @Nullable
+    Drawable getIcon() {
+        if (mFlatRenderer != null) {
+            return mFlatRenderer.getIcon();
+        }
+        return mIconView != null ? mIconView.getDrawable() : null;
+    }
+
+    /**
+     * Returns a hash of everything besides the width that decides the height of this view, or
+     * 0 if its height can't be told from it. Styled text, whose spans may change its size, is
+     * never hashed.
+     */
+    int getContentSignature() {
+        final CharSequence title = getTitle();
+        final CharSequence content = getContent();
+        if (title instanceof Spanned || content instanceof Spanned) {
+            return 0;
+        }
+        int hash = mRenderMode;
+        hash = 31 * hash + (getIcon() != null ? 1 : 0);
+        hash = 31 * hash + Float.floatToIntBits(getResources().getConfiguration().fontScale);
+        hash = hash(hash, title);
+        hash = hash(hash, content);
+        return hash != 0 ? hash : 1;
+    }
+
+    private static int hash(int hash, CharSequence text) {
+        // Like String.hashCode(), without converting a CharSequence to a String first
+        for (int i = 0, length = text.length(); i < length; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return 31 * hash + text.length();
+    }
+
+    private void onFlatContentChanged() {
+        // Without child TextViews, accessibility services read the text from here
+        setContentDescription(TextUtils.concat(mFlatRenderer.getTitle(), " ",
+                mFlatRenderer.getContent()));
+        requestLayout();
+        invalidate();
+    }
+
+    void setAction(@NonNull final View.OnClickListener listener) {
+        mActionListener = listener;
+        setOnClickListener(new View.OnClickListener() {
             @Override
-            public void onAnimationEnd(Animator animator) {
-                onViewShown();
+            public void onClick(View v) {
+                listener.onClick(v);
+                // Now dismiss the Bubble
+                dispatchDismiss(Callback.DISMISS_EVENT_ACTION);
             }
         });
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            private int mPreviousAnimatedIntValue = viewHeight;
+    }
 
-            @Override
-            public void onAnimationUpdate(ValueAnimator animator) {
-                int currentAnimatedIntValue = (int) animator.getAnimatedValue();
-                if (USE_OFFSET_API) {
-                    ViewCompat.offsetTopAndBottom(BubbleLayout.this,
-                            currentAnimatedIntValue - mPreviousAnimatedIntValue);
-                } else {
-                    setTranslationY(currentAnimatedIntValue);
+    void setKey(String key) {
+        mKey = key;
+    }
+
+    void setGroup(String group) {
+        mGroup = group;
+    }
+
+    /**
+     * Takes over everything bound to {@code source}, which is coalesced into this view. The
+     * view stays attached and keeps its position, only its content changes.
+     */
+    private void bindFrom(BubbleLayout source) {
+        setTitle(source.getTitle());
+        setContent(source.getContent());
+        final BubbleIconCache.Source pendingIcon = source.mPendingIcon;
+        final Drawable icon = source.getIcon();
+        // Detach the drawable from the source first, or its reset would clear the
+        // drawable callback we are about to set
+        source.setIcon(null);
+        if (pendingIcon != null) {
+            // Still decoding for the source, which drops the result now: load it for us
+            // instead, from the cache if it has arrived in the meantime
+            BubbleIconCache.load(this, pendingIcon);
+        } else {
+            setIcon(icon);
+        }
+        if (source.mActionListener != null) {
+            setAction(source.mActionListener);
+        }
+        takeCallbacks(source);
+        mDuration = source.mDuration;
+    }
+
+    private void takeCallbacks(BubbleLayout source) {
+        if (source.mCallbacks != null) {
+            for (Callback callback : source.mCallbacks) {
+                if (mCallbacks == null || !mCallbacks.contains(callback)) {
+                    addCallback(callback);
                 }
-                mPreviousAnimatedIntValue = currentAnimatedIntValue;
             }
-        });
-        animator.start();
+        }
     }
 
-    private void animateViewOut(final int event) {
-        final ValueAnimator animator = new ValueAnimator();
-        animator.setIntValues(0, -getHeight());
-        animator.setInterpolator(Constant.FAST_OUT_SLOW_IN_INTERPOLATOR);
-        animator.setDuration(ANIMATION_DURATION);
-        animator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationStart(Animator animator) {
-            }
+    /**
+     * Turns this view into the summary of a digest, or updates it, with {@code source} as one
+     * more collapsed Bubble. Tapping the summary expands or collapses its details: the actions
+     * of the collapsed Bubbles, its own included, are dropped since none of them stands for the
+     * whole burst. Their callbacks are called when the summary is dismissed.
+     */
+    private void collapseFrom(BubbleLayout source, CharSequence title) {
+        if (mDigestDetails == null) {
+            mDigestDetails = new ArrayList<>(DIGEST_MAX_DETAILS);
+        }
+        if (mDigestDetails.isEmpty() && mDigestOverflow == 0) {
+            // Becoming a summary, its own content is the first detail
+            addDigestDetail(describe());
+            mActionListener = null;
+            setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    setDigestExpanded(!mDigestExpanded);
+                }
+            });
+        }
+        addDigestDetail(source.describe());
+        takeCallbacks(source);
+        mDuration = source.mDuration;
+        setTitle(title);
+        bindDigestDetails();
+    }
 
-            @Override
-            public void onAnimationEnd(Animator animator) {
-                onViewHidden(event);
-            }
-        });
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            private int mPreviousAnimatedIntValue = 0;
+    private CharSequence describe() {
+        final CharSequence title = getTitle();
+        final CharSequence content = getContent();
+        if (content.length() == 0) {
+            return title;
+        }
+        return title.length() == 0 ? content : TextUtils.concat(title, ": ", content);
+    }
 
-            @Override
-            public void onAnimationUpdate(ValueAnimator animator) {
-                int currentAnimatedIntValue = (int) animator.getAnimatedValue();
-                if (USE_OFFSET_API) {
-                    ViewCompat.offsetTopAndBottom(BubbleLayout.this,
-                            currentAnimatedIntValue - mPreviousAnimatedIntValue);
-                } else {
-                    setTranslationY(currentAnimatedIntValue);
+    private void addDigestDetail(CharSequence detail) {
+        if (mDigestDetails.size() == DIGEST_MAX_DETAILS) {
+            mDigestDetails.remove(0);
+            mDigestOverflow++;
+        }
+        mDigestDetails.add(detail);
+    }
+
+    private void setDigestExpanded(boolean expanded) {
+        mDigestExpanded = expanded;
+        bindDigestDetails();
+        if (mManager == null) {
+            return;
+        }
+        // Give the user the time to read the details
+        if (expanded) {
+            mManager.pauseTimeout(mManagerCallback);
+        } else {
+            mManager.restoreTimeoutIfPaused(mManagerCallback);
+        }
+    }
+
+    /**
+     * Shows the newest collapsed Bubble, or all the listed ones newest first once expanded.
+     */
+    private void bindDigestDetails() {
+        final int last = mDigestDetails.size() - 1;
+        if (!mDigestExpanded) {
+            setContentMaxLines(CONTENT_MAX_LINES);
+            setContent(mDigestDetails.get(last));
+            return;
+        }
+        final ArrayList<CharSequence> lines = new ArrayList<>(mDigestDetails.size() + 1);
+        for (int i = last; i >= 0; i--) {
+            lines.add(mDigestDetails.get(i));
+        }
+        if (mDigestOverflow > 0) {
+            lines.add(getResources().getString(R.string.bubble_digest_more, mDigestOverflow));
+        }
+        setContentMaxLines(lines.size());
+        setContent(TextUtils.join("\n", lines));
+    }
+
+    private void setContentMaxLines(int maxLines) {
+        if (mFlatRenderer != null) {
+            mFlatRenderer.setContentMaxLines(maxLines);
+            requestLayout();
+        } else if (mContentView != null) {
+            mContentView.setMaxLines(maxLines);
+        }
+    }
+
+    private void showView() {
+        final boolean traced = BubbleTrace.begin("Bubble.showView");
+        try {
+            attachAndEnter();
+        } finally {
+            BubbleTrace.end(traced);
+        }
+    }
+
+    private void attachAndEnter() {
+        if (!mShowState.attach()) {
+            // Not queued any more, or already attached
+            return;
+        }
+        if (getParent() == null) {
+            ViewGroup host = mTargetParent;
+            if (BubblePanel.getMode() == Constant.DISPLAY_MODE_PANEL) {
+                // Stays in the decor view if the window can't have a panel yet
+                final BubblePanel panel = BubblePanel.get(mTargetParent);
+                if (panel != null) {
+                    host = panel;
                 }
-                mPreviousAnimatedIntValue = currentAnimatedIntValue;
             }
-        });
-        animator.start();
+            // Several Bubbles may be visible, let the stack of the window place them
+            final ViewGroup container = mManager.getMaxVisible() > 1
+                    ? BubbleStack.get(host) : host;
+            // Offsets are reset by the first layout pass, only a translation can be set ahead
+            final boolean premeasure = shouldAnimate() && !USE_OFFSET_API;
+            int height = 0;
+            if (premeasure) {
+                // Attach already out of the screen, so the first frame drawn is the first frame
+                // of the entrance rather than the Bubble in place
+                height = BubblePool.get(mTargetParent).measureHeight(this, container);
+                mVerticalMotion.jumpTo(-height);
+            }
+            container.addView(this);
+            if (premeasure) {
+                enter(height);
+                return;
+            }
+        }
+
+        if (ViewCompat.isLaidOut(this)) {
+            // Already laid out, e.g. reattached from the pool, no layout pass may come
+            enter(getHeight());
+        }
+    }
+
+    /**
+     * Starts the entrance, once per show: when attached if the height of the view is known
+     * ahead, on the first layout pass after being attached otherwise.
+     */
+    private void enter(int height) {
+        final boolean animate = shouldAnimate();
+        if (!mShowState.enter(animate)) {
+            return;
+        }
+        if (animate) {
+            // If animations are enabled, animate it in
+            animateViewIn(height);
+        } else {
+            // Else if anims are disabled just call back now
+            onViewShown();
+        }
+    }
+
+    private void animateViewIn(int height) {
+        mVerticalMotion.jumpTo(-height);
+        mVerticalMotion.start(MOTION_IN, 0, 0);
+    }
+
+    private void animateViewOut(final int event) {
+        if (isStacked()) {
+            // Other Bubbles may sit above this one, leave sideways rather than across them
+            mHorizontalMotion.start(MOTION_OUT, getWidth(), event);
+        } else {
+            mVerticalMotion.start(MOTION_OUT, -getHeight(), event);
+        }
+    }
+
+    /**
+     * Moves on to the exit. An entrance cut short still counts as shown.
+     *
+     * @return false if there is no exit to run: the Bubble never made it on screen, or is
+     * already leaving.
+     */
+    private boolean startExit() {
+        if (mShowState.entered()) {
+            onViewShown();
+        }
+        return mShowState.exit();
+    }
+
+    private boolean isStacked() {
+        return getParent() instanceof BubbleStack;
+    }
+
+    /**
+     * Returns how far the vertical motion has offset the layout of the view, which is only
+     * the case on the versions where it doesn't move the view through its translation.
+     */
+    int getLayoutOffset() {
+        return USE_OFFSET_API ? (int) mVerticalMotion.mValue : 0;
     }
 
     private void hideView(@Callback.DismissEvent final int event) {
-        if (shouldAnimate() && getVisibility() == View.VISIBLE) {
+        if (mShowState.get() == BubbleShowState.EXITING) {
+            // Already on its way out, e.g. swiped away, it reports itself hidden once gone
+            return;
+        }
+        if (!startExit()) {
+            // Never made it on screen, e.g. dropped from the queue
+            onViewHidden(event);
+        } else if (shouldAnimate() && getVisibility() == View.VISIBLE) {
             animateViewOut(event);
         } else {
             // If anims are disabled or the view isn't visible, just call back now
@@ -271,7 +827,13 @@ public class BubbleLayout extends FrameLayout {
     }
 
     private void onViewShown() {
-        BubbleManager.getInstance().onShown(mManagerCallback);
+        final BubbleManager manager = mManager;
+        manager.onShown(mManagerCallback);
+        mShownTime = SystemClock.uptimeMillis();
+        final BubbleMetrics metrics = manager.getMetricsListener();
+        if (metrics != null && mMadeTime > 0) {
+            metrics.onShown(mShownTime - mMadeTime);
+        }
         if (mCallbacks != null) {
             // Notify the callbacks. Do that from the end of the list so that if a callback
             // removes itself as the result of being called, it won't mess up with our iteration
@@ -286,7 +848,7 @@ public class BubbleLayout extends FrameLayout {
      * Returns true if we should animate the Bubble view in/out.
      */
     private boolean shouldAnimate() {
-        return !mAccessibilityManager.isEnabled();
+        return mAnimationPolicy.getLevel() != Constant.ANIMATION_LEVEL_NONE;
     }
 
     /**
@@ -318,12 +880,34 @@ public class BubbleLayout extends FrameLayout {
         mCallbacks.remove(callback);
     }
 
+    /**
+     * Records when the Bubble using this view was made, for the metrics.
+     */
+    void setMadeTime(long uptimeMillis) {
+        mMadeTime = uptimeMillis;
+    }
+
     /**
      * Show the {@link BubbleLayout}.
      */
     void show(@NonNull ViewGroup parent) {
         this.mTargetParent = parent;
-        BubbleManager.getInstance().show(mDuration, mManagerCallback);
+        mManager = BubbleManagers.forWindow(parent);
+        // False when shown again while still up, the manager then just restarts its timeout
+        mShowState.queue();
+        endLifetimeTrace();
+        mTraceCookie = BubbleTrace.beginAsync(TRACE_LIFETIME);
+        final boolean traced = BubbleTrace.begin("BubbleManager.show");
+        try {
+            mManager.show(mDuration, mPriority, mKey, mGroup, mManagerCallback);
+        } finally {
+            BubbleTrace.end(traced);
+        }
+    }
+
+    private void endLifetimeTrace() {
+        BubbleTrace.endAsync(TRACE_LIFETIME, mTraceCookie);
+        mTraceCookie = 0;
     }
 
     /**
@@ -334,7 +918,16 @@ public class BubbleLayout extends FrameLayout {
     }
 
     void dispatchDismiss(@Callback.DismissEvent int event) {
-        BubbleManager.getInstance().dismiss(mManagerCallback, event);
+        if (mManager == null) {
+            // Never shown, there is nothing to dismiss
+            return;
+        }
+        final boolean traced = BubbleTrace.begin("BubbleManager.dismiss");
+        try {
+            mManager.dismiss(mManagerCallback, event);
+        } finally {
+            BubbleTrace.end(traced);
+        }
     }
 
     /**
@@ -358,38 +951,76 @@ public class BubbleLayout extends FrameLayout {
         return mDuration;
     }
 
+    /**
+     * Set how entrance, exit and swipe transitions are rendered. Can also be set with the
+     * {@code bubbleAnimationMode} attribute.
+     *
+     * @param mode {@link Constant#ANIMATION_MODE_STANDARD} or
+     *             {@link Constant#ANIMATION_MODE_HARDWARE}.
+     */
+    public void setAnimationMode(@Constant.AnimationMode int mode) {
+        mAnimationMode = mode;
+    }
+
+    /**
+     * Return the animation mode.
+     *
+     * @see #setAnimationMode
+     */
+    @Constant.AnimationMode
+    public int getAnimationMode() {
+        return mAnimationMode;
+    }
+
+    /**
+     * Set the priority used to order this view in the queue of pending Bubbles.
+     *
+     * @param priority {@link Constant#PRIORITY_LOW}, {@link Constant#PRIORITY_NORMAL},
+     *                 {@link Constant#PRIORITY_HIGH} or any other value, higher first.
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Return the priority.
+     *
+     * @see #setPriority
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    // A dragged Bubble let go past this share of its width leaves, otherwise it settles back
+    private static final float SWIPE_DISMISS_FRACTION = 0.5f;
+
     private int mScaledTouchSlop;
-    private int mLastX;
-    private int mLastY;
-    private int mDownX;
-    private int mDownY;
+    // Gesture positions in screen coordinates, which don't move with the dragged view
+    private float mLastX;
+    private float mDownX;
+    private float mDownY;
     private boolean mDragging;
     private int mScaledMinimumFlingVelocity;
     private int mScaledMaximumFlingVelocity;
-    private OverScroller mScroller;
+    // Obtained once and cleared at the start of each gesture
     private VelocityTracker mVelocityTracker;
 
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
-        int action = ev.getAction();
-        switch (action) {
+        switch (ev.getActionMasked()) {
             case MotionEvent.ACTION_DOWN: {
-                mDownX = mLastX = (int) ev.getX() + (int) getTranslationX();
-                mDownY = (int) ev.getY();
-                BubbleManager.getInstance().pauseTimeout(mManagerCallback);
+                mDownX = mLastX = ev.getRawX();
+                mDownY = ev.getRawY();
+                mManager.pauseTimeout(mManagerCallback);
                 return false;
             }
             case MotionEvent.ACTION_MOVE: {
-                int disX = (int) (ev.getX() + (int) getTranslationX() - mDownX);
-                int disY = (int) (ev.getY() - mDownY);
-                return Math.abs(disX) > mScaledTouchSlop && Math.abs(disX) > Math.abs(disY);
-            }
-            case MotionEvent.ACTION_UP: {
-                BubbleManager.getInstance().restoreTimeoutIfPaused(mManagerCallback);
-                return false;
+                final float disX = Math.abs(ev.getRawX() - mDownX);
+                return disX > mScaledTouchSlop && disX > Math.abs(ev.getRawY() - mDownY);
             }
+            case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL: {
-                BubbleManager.getInstance().restoreTimeoutIfPaused(mManagerCallback);
+                mManager.restoreTimeoutIfPaused(mManagerCallback);
                 return false;
             }
         }
@@ -398,138 +1029,404 @@ public class BubbleLayout extends FrameLayout {
 
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
-        if (mVelocityTracker == null) mVelocityTracker = VelocityTracker.obtain();
+        if (mFlatRenderer != null && handleCloseTouch(ev)) {
+            return true;
+        }
+        final int action = ev.getActionMasked();
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        } else if (action == MotionEvent.ACTION_DOWN) {
+            mVelocityTracker.clear();
+        }
+        // Track the finger on screen: in view coordinates it barely moves while dragging, since
+        // the view follows it. Shifting the event in place saves a copy.
+        final float offsetX = ev.getRawX() - ev.getX();
+        final float offsetY = ev.getRawY() - ev.getY();
+        ev.offsetLocation(offsetX, offsetY);
         mVelocityTracker.addMovement(ev);
-        int action = ev.getAction();
+        ev.offsetLocation(-offsetX, -offsetY);
+
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
-                mLastX = (int) ev.getX() + (int) getTranslationX();
-                mLastY = (int) ev.getY();
+                mDownX = mLastX = ev.getRawX();
+                mDownY = ev.getRawY();
+                if (mHorizontalMotion.isRunning(MOTION_RESET)) {
+                    // Catch the Bubble while it settles back
+                    mHorizontalMotion.cancel();
+                    startDragging();
+                }
                 break;
             }
             case MotionEvent.ACTION_MOVE: {
-                int translationX = (int) getTranslationX();
-                int disX = (int) (ev.getX() + translationX - mLastX);
-                int disY = (int) (ev.getY() - mLastY);
-                if (!mDragging && Math.abs(disX) > mScaledTouchSlop && Math.abs(disX) > Math.abs(disY)) {
-                    mDragging = true;
+                final float x = ev.getRawX();
+                if (!mDragging) {
+                    final float disX = Math.abs(x - mDownX);
+                    if (disX > mScaledTouchSlop && disX > Math.abs(ev.getRawY() - mDownY)) {
+                        startDragging();
+                        mLastX = x;
+                    }
                 }
                 if (mDragging) {
-                    //scrollBy(disX, 0);
-                    setTranslationX(translationX + disX);
-                    mLastX = (int) ev.getX() + translationX;
-                    mLastY = (int) ev.getY();
+                    setTranslationX(getTranslationX() + x - mLastX);
+                    mLastX = x;
                 }
                 break;
             }
             case MotionEvent.ACTION_UP: {
                 mVelocityTracker.computeCurrentVelocity(1000, mScaledMaximumFlingVelocity);
+                boolean dismissing = false;
                 if (mDragging) {
                     mDragging = false;
-                    int velocityX = (int) mVelocityTracker.getXVelocity();
-                    int velocity = Math.abs(velocityX);
-                    if (velocity > mScaledMinimumFlingVelocity) {
-                        animateViewOutSwipe(Callback.DISMISS_EVENT_MANUAL);
-                    } else {
-                        judgeResetClose();
-                    }
-                } else {
-                    int velocityY = (int) mVelocityTracker.getYVelocity();
-                    if (velocityY < -mScaledMinimumFlingVelocity) {
-                        animateViewOut(Callback.DISMISS_EVENT_MANUAL);
-                    }
+                    dismissing = settle(mVelocityTracker.getXVelocity());
+                } else if (mVelocityTracker.getYVelocity() < -mScaledMinimumFlingVelocity
+                        && shouldAnimate() && startExit()) {
+                    // Flung up, out of the screen
+                    dismissing = true;
+                    animateViewOut(Callback.DISMISS_EVENT_SWIPE);
+                }
+                if (!dismissing) {
+                    mManager.restoreTimeoutIfPaused(mManagerCallback);
                 }
-                mVelocityTracker.clear();
-                mVelocityTracker.recycle();
-                mVelocityTracker = null;
-                if (Math.abs(mDownX - ev.getX() - (int) getTranslationX()) > mScaledTouchSlop
-                        || Math.abs(mDownY - ev.getY()) > mScaledTouchSlop) {
+                if (Math.abs(ev.getRawX() - mDownX) > mScaledTouchSlop
+                        || Math.abs(ev.getRawY() - mDownY) > mScaledTouchSlop) {
+                    // A drag or a fling is not a click
                     ev.setAction(MotionEvent.ACTION_CANCEL);
-                    BubbleManager.getInstance().restoreTimeoutIfPaused(mManagerCallback);
                 }
                 break;
             }
             case MotionEvent.ACTION_CANCEL: {
-                mDragging = false;
-                if (!mScroller.isFinished()) {
-                    mScroller.abortAnimation();
-                } else {
-                    judgeResetClose();
+                if (mDragging) {
+                    mDragging = false;
+                    settle(0f);
                 }
+                mManager.restoreTimeoutIfPaused(mManagerCallback);
                 break;
             }
         }
         return super.onTouchEvent(ev);
     }
 
-    private void judgeResetClose() {
-        float mOpenPercent = 0.5f;
-        if (Math.abs(getTranslationX()) > getWidth() * mOpenPercent) {
-            animateViewOutSwipe(MotionEvent.ACTION_CANCEL);
-        } else {
-            animateViewReset();
+    private void startDragging() {
+        mDragging = true;
+        final ViewParent parent = getParent();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(true);
         }
     }
 
-    private void animateViewReset() {
-        final ValueAnimator animator = new ValueAnimator();
-        animator.setIntValues((int) getTranslationX(), 0);
-        animator.setInterpolator(Constant.FAST_OUT_SLOW_IN_INTERPOLATOR);
-        animator.setDuration(ANIMATION_DURATION);
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            private int mPreviousAnimatedIntValue = 0;
+    /**
+     * Hit-tests the close glyph drawn in flat mode.
+     *
+     * @return true if the event belongs to a touch on the close glyph.
+     */
+    private boolean handleCloseTouch(MotionEvent ev) {
+        final float x = ev.getX() - getPaddingLeft();
+        final float y = ev.getY() - getPaddingTop();
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mCloseTouched = mFlatRenderer.isInClose(x, y);
+                return mCloseTouched;
+            case MotionEvent.ACTION_MOVE:
+                return mCloseTouched;
+            case MotionEvent.ACTION_UP:
+                if (mCloseTouched) {
+                    mCloseTouched = false;
+                    mManager.restoreTimeoutIfPaused(mManagerCallback);
+                    if (mFlatRenderer.isInClose(x, y)) {
+                        dismiss();
+                    }
+                    return true;
+                }
+                return false;
+            case MotionEvent.ACTION_CANCEL:
+                if (mCloseTouched) {
+                    mCloseTouched = false;
+                    return true;
+                }
+                return false;
+        }
+        return false;
+    }
 
-            @Override
-            public void onAnimationUpdate(ValueAnimator animator) {
-                int currentAnimatedIntValue = (int) animator.getAnimatedValue();
-                if (USE_OFFSET_API) {
-                    ViewCompat.offsetLeftAndRight(BubbleLayout.this,
-                            currentAnimatedIntValue - mPreviousAnimatedIntValue);
-                } else {
-                    setTranslationX(currentAnimatedIntValue);
+    /**
+     * Lets go of a dragged Bubble, carrying on at the speed of the finger: it leaves on the side
+     * it is flung to or dragged past half its width, and settles back in place otherwise.
+     *
+     * @param velocityX The horizontal velocity of the finger, in pixels per second.
+     * @return true if the Bubble is being dismissed.
+     */
+    private boolean settle(float velocityX) {
+        if (mShowState.get() == BubbleShowState.EXITING) {
+            // Dismissed while being dragged, let its exit run
+            return true;
+        }
+        final float translationX = getTranslationX();
+        final int width = getWidth();
+        final float to;
+        if (Math.abs(velocityX) > mScaledMinimumFlingVelocity) {
+            to = velocityX > 0 ? width : -width;
+        } else if (Math.abs(translationX) > width * SWIPE_DISMISS_FRACTION) {
+            to = translationX > 0 ? width : -width;
+        } else {
+            to = 0;
+        }
+        final boolean dismissing = to != 0 && startExit();
+        if (dismissing) {
+            setClickable(false);
+        }
+        if (!shouldAnimate()) {
+            mHorizontalMotion.jumpTo(dismissing ? to : 0);
+            if (dismissing) {
+                onViewHidden(Callback.DISMISS_EVENT_SWIPE);
+            }
+        } else {
+            mHorizontalMotion.fling(dismissing ? MOTION_OUT_SWIPE : MOTION_RESET,
+                    dismissing ? to : 0, velocityX, Callback.DISMISS_EVENT_SWIPE);
+        }
+        return dismissing;
+    }
+
+    /**
+     * Promotes the view to a hardware layer while at least one transition is running.
+     */
+    private void acquireLayer() {
+        if (mLayerCount++ == 0) {
+            mSavedLayerType = getLayerType();
+            if (mSavedLayerType != View.LAYER_TYPE_HARDWARE) {
+                setLayerType(View.LAYER_TYPE_HARDWARE, null);
+                if (ViewCompat.isAttachedToWindow(this)) {
+                    // Render the layer now rather than in the first animation frame
+                    buildLayer();
                 }
-                mPreviousAnimatedIntValue = currentAnimatedIntValue;
             }
-        });
-        animator.start();
+        }
     }
 
-    private void animateViewOutSwipe(final int event) {
-        setClickable(false);
-        final ValueAnimator animator = new ValueAnimator();
-        if (getTranslationX() > 0) {
-            animator.setIntValues((int) getTranslationX(), getWidth());
-        } else {
-            animator.setIntValues((int) getTranslationX(), -getWidth());
+    private void releaseLayer() {
+        if (--mLayerCount == 0 && mSavedLayerType != View.LAYER_TYPE_HARDWARE) {
+            setLayerType(mSavedLayerType, null);
         }
-        animator.setInterpolator(Constant.FAST_OUT_SLOW_IN_INTERPOLATOR);
-        animator.setDuration(ANIMATION_DURATION);
-        animator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationStart(Animator animator) {
+    }
+
+    private boolean shouldUseLayer() {
+        return mAnimationMode == Constant.ANIMATION_MODE_HARDWARE && USE_HARDWARE_LAYER
+                && isHardwareAccelerated();
+    }
+
+    private static final int MOTION_NONE = 0;
+    private static final int MOTION_IN = 1;
+    private static final int MOTION_OUT = 2;
+    private static final int MOTION_RESET = 3;
+    private static final int MOTION_OUT_SWIPE = 4;
+
+    // Natural frequency of the swipe spring, per millisecond: settles in about 300ms
+    private static final float SPRING_OMEGA = 0.03f;
+    private static final int MAX_SPRING_DURATION = 600;
+    private static final float SPRING_REST_DISTANCE = 0.5f;
+
+    /**
+     * Returns the distance to the rest position of a critically damped spring after {@code t},
+     * having started {@code x0} away at {@code v0}.
+     */
+    private static float springOffset(float x0, float v0, float omega, float t) {
+        return (float) ((x0 + (v0 + omega * x0) * t) * Math.exp(-omega * t));
+    }
+
+    /**
+     * Returns how long the spring takes to come to rest, within half a pixel and moving less
+     * than that per frame.
+     */
+    private static long springDuration(float x0, float v0, float omega) {
+        final int frame = 16;
+        for (int t = frame; t < MAX_SPRING_DURATION; t += frame) {
+            final double decay = Math.exp(-omega * t);
+            final double offset = (x0 + (v0 + omega * x0) * t) * decay;
+            final double velocity = (v0 - omega * t * (v0 + omega * x0)) * decay;
+            if (Math.abs(offset) < SPRING_REST_DISTANCE
+                    && Math.abs(velocity) * frame < SPRING_REST_DISTANCE) {
+                return t;
             }
+        }
+        return MAX_SPRING_DURATION;
+    }
 
-            @Override
-            public void onAnimationEnd(Animator animator) {
-                onViewHidden(event);
+    private final Motion mVerticalMotion = new Motion(false);
+    private final Motion mHorizontalMotion = new Motion(true);
+
+    /**
+     * Moves the view along one axis with an animator that is allocated once and reused for
+     * every entrance, exit and swipe, so running an animation allocates nothing per frame.
+     */
+    private final class Motion extends AnimatorListenerAdapter
+            implements ValueAnimator.AnimatorUpdateListener {
+        private final ValueAnimator mAnimator = new ValueAnimator();
+        private final boolean mHorizontal;
+        private int mType = MOTION_NONE;
+        private float mFrom;
+        private float mTo;
+        private float mValue;
+        private int mEvent;
+        private boolean mCancelled;
+        private boolean mLayered;
+        private boolean mMonitored;
+        // Spring motion, distances in pixels and times in milliseconds
+        private boolean mSpring;
+        private float mVelocity;
+        private float mOmega;
+        private long mSpringDuration;
+
+        Motion(boolean horizontal) {
+            mHorizontal = horizontal;
+            mAnimator.setFloatValues(0f, 1f);
+            mAnimator.setInterpolator(AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+            mAnimator.setDuration(ANIMATION_DURATION);
+            mAnimator.addUpdateListener(this);
+            mAnimator.addListener(this);
+        }
+
+        /**
+         * Animates from the current position to {@code to}. A running animation on the same
+         * axis is cancelled first.
+         */
+        void start(int type, float to, int event) {
+            prepare(type, to, event);
+            mSpring = false;
+            mAnimator.setInterpolator(AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+            mAnimator.setDuration(mAnimationPolicy.getLevel() == Constant.ANIMATION_LEVEL_REDUCED
+                    ? REDUCED_ANIMATION_DURATION : ANIMATION_DURATION);
+            run();
+        }
+
+        /**
+         * Moves to {@code to} on a critically damped spring that starts at {@code velocity}, so
+         * a released Bubble keeps the speed of the finger and comes to rest without bouncing.
+         *
+         * @param velocity In pixels per second.
+         */
+        void fling(int type, float to, float velocity, int event) {
+            prepare(type, to, event);
+            mSpring = true;
+            mOmega = mAnimationPolicy.getLevel() == Constant.ANIMATION_LEVEL_REDUCED
+                    ? SPRING_OMEGA * 2 : SPRING_OMEGA;
+            mVelocity = velocity / 1000f;
+            mSpringDuration = springDuration(mFrom - mTo, mVelocity, mOmega);
+            // The spring is evaluated at the elapsed time, i.e. at the linear fraction
+            mAnimator.setInterpolator(AnimationUtils.LINEAR_INTERPOLATOR);
+            mAnimator.setDuration(mSpringDuration);
+            run();
+        }
+
+        private void prepare(int type, float to, int event) {
+            cancel();
+            mType = type;
+            mFrom = mHorizontal ? getTranslationX() : mValue;
+            mTo = to;
+            mEvent = event;
+            mCancelled = false;
+        }
+
+        private void run() {
+            mLayered = shouldUseLayer();
+            if (mLayered) {
+                acquireLayer();
             }
-        });
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            private int mPreviousAnimatedIntValue = 0;
+            // Let the policy watch the frames of the transition
+            mMonitored = true;
+            mAnimationPolicy.onTransitionStart();
+            mAnimator.start();
+        }
 
-            @Override
-            public void onAnimationUpdate(ValueAnimator animator) {
-                int currentAnimatedIntValue = (int) animator.getAnimatedValue();
-                if (USE_OFFSET_API) {
-                    ViewCompat.offsetLeftAndRight(BubbleLayout.this,
-                            currentAnimatedIntValue - mPreviousAnimatedIntValue);
+        boolean isRunning(int type) {
+            return mType == type && mAnimator.isStarted();
+        }
+
+        /**
+         * Moves to {@code value} without animating.
+         */
+        void jumpTo(float value) {
+            cancel();
+            apply(value);
+        }
+
+        void cancel() {
+            if (mAnimator.isStarted()) {
+                mAnimator.cancel();
+            }
+        }
+
+        /**
+         * Cancels without dispatching anything and forgets the position, for a view that goes
+         * back to the pool.
+         */
+        void abort() {
+            mType = MOTION_NONE;
+            cancel();
+            mValue = 0;
+        }
+
+        private void apply(float value) {
+            if (mHorizontal) {
+                setTranslationX(value);
+            } else if (USE_OFFSET_API) {
+                ViewCompat.offsetTopAndBottom(BubbleLayout.this, (int) value - (int) mValue);
+            } else {
+                setTranslationY(value);
+            }
+            mValue = value;
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator animator) {
+            final boolean traced = BubbleTrace.begin("Bubble.animate");
+            try {
+                // The fraction is a primitive float, unlike getAnimatedValue() which boxes
+                final float fraction = animator.getAnimatedFraction();
+                if (!mSpring) {
+                    apply(mFrom + (mTo - mFrom) * fraction);
+                } else if (fraction < 1f) {
+                    apply(mTo + springOffset(mFrom - mTo, mVelocity, mOmega,
+                            fraction * mSpringDuration));
                 } else {
-                    setTranslationX(currentAnimatedIntValue);
+                    // Land exactly on the target, the spring only gets within half a pixel
+                    apply(mTo);
                 }
-                mPreviousAnimatedIntValue = currentAnimatedIntValue;
+            } finally {
+                BubbleTrace.end(traced);
             }
-        });
-        animator.start();
-    }
+        }
 
-}
\ No newline at end of file
+        @Override
+        public void onAnimationCancel(Animator animator) {
+            mCancelled = true;
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animator) {
+            final int type = mType;
+            mType = MOTION_NONE;
+            if (mLayered) {
+                mLayered = false;
+                releaseLayer();
+            }
+            if (mMonitored) {
+                mMonitored = false;
+                mAnimationPolicy.onTransitionEnd();
+            }
+            if (mCancelled) {
+                // Superseded, e.g. an entrance by the exit, which reported it already
+                return;
+            }
+            switch (type) {
+                case MOTION_IN:
+                    if (mShowState.entered()) {
+                        onViewShown();
+                    }
+                    break;
+                case MOTION_OUT:
+                case MOTION_OUT_SWIPE:
+                    onViewHidden(mEvent);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.view.ViewGroup;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Purges the Bubbles of an Activity when it is destroyed, including on a configuration change:
+ * its current, queued and deferred Bubbles are released without calling back, their pending
+ * messages and timeouts removed, the pooled views of its window dropped and its Bubble panel
+ * window removed. Without this, a
+ * queued Bubble would keep the destroyed Activity reachable until its timeout fires.
+ */
+final class BubbleLifecycle implements Application.ActivityLifecycleCallbacks {
+
+    private static boolean sRegistered;
+
+    private BubbleLifecycle() {
+    }
+
+    /**
+     * Starts watching the Activities of the app, once. Main thread only.
+     */
+    static void register(Context context) {
+        if (sRegistered) {
+            return;
+        }
+        final Context application = context.getApplicationContext();
+        if (application instanceof Application) {
+            sRegistered = true;
+            ((Application) application).registerActivityLifecycleCallbacks(
+                    new BubbleLifecycle());
+        }
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        final ViewGroup parent = Bubble.findRootView(activity);
+        if (parent == null) {
+            return;
+        }
+        final BubbleManager manager = (BubbleManager) parent.getTag(R.id.bubble_manager);
+        if (manager != null) {
+            // Stays closed on the window, so Bubbles shown from now on are released at once
+            manager.close();
+        }
+        final BubblePool pool = (BubblePool) parent.getTag(R.id.bubble_pool);
+        if (pool != null) {
+            pool.clear();
+        }
+        // The window manager would drop it with the Activity window, but still keep our view
+        BubblePanel.remove(parent);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+}
@@ -16,208 +16,969 @@
 
 package orientsec.bubble;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
-
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Manages {@link Bubble}s.
+ * Manages the {@link Bubble}s of a window. Each window has its own manager (see
+ * {@link BubbleManagers#forWindow}), so Bubbles of different windows are queued and timed
+ * independently; a {@link BubbleCoordinator} may be set to still limit the visible Bubbles
+ * across windows.
+ * <p>
+ * Up to {@link #getMaxVisible()} Bubbles are shown at a time, one by default. Bubbles that are
+ * shown while every slot is taken wait in a bounded queue ordered by priority and then by
+ * enqueue time. A queued Bubble only replaces a current one if it has a strictly higher
+ * priority, and then only the least important current one. The manager holds on to queued
+ * Bubbles until they are shown, dismissed or released by {@link #close()}; visible ones are
+ * held by their window. A {@link BubbleDigest} may be set
+ * to collapse bursts of Bubbles into one.
+ * <p>
+ * All state is confined to the main thread, so no locking is needed. Calls made on the main
+ * thread run immediately; calls from other threads are put in a lock-free queue and run on the
+ * main thread, in order, before the next main-thread call or from a single posted message.
+ * The queries ({@link #isCurrent(Callback)}, {@link #isCurrentOrQueued(Callback)}) may only be
+ * used on the main thread.
+ * <p>
+ * The main thread and the clock are provided by a {@link BubbleScheduler}, so this class does
+ * not depend on the Android framework and can be driven deterministically off-device.
  */
 class BubbleManager {
 
-    static final int MSG_TIMEOUT = 0;
-
     private static final int SHORT_DURATION_MS = 3000;
     private static final int LONG_DURATION_MS = 6000;
 
-    private static BubbleManager sBubbleManager;
+    static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private final BubbleScheduler mScheduler;
+
+    // Commands posted from other threads, run on the main thread in order
+    private final ConcurrentLinkedQueue<Runnable> mCommands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final AtomicInteger mBacklog = new AtomicInteger();
+    private final AtomicInteger mMaxBacklog = new AtomicInteger();
+    private final AtomicLong mHandoffCount = new AtomicLong();
+    private final AtomicLong mDrainCount = new AtomicLong();
+    private long mInlineCount;
+
+    private final ArrayList<BubbleRecord> mCurrent = new ArrayList<>();
+    private volatile int mMaxVisible = 1;
+    private final ArrayList<BubbleRecord> mQueue = new ArrayList<>();
+    private volatile int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+    @Constant.OverflowPolicy
+    private volatile int mOverflowPolicy = Constant.OVERFLOW_DROP_OLDEST;
+    private long mSequence;
+
+    private volatile BubbleThrottle mThrottle;
+    private volatile BubbleMetrics mMetrics;
+    private volatile BubbleCoordinator mCoordinator;
+    private volatile BubbleDigest mDigest;
+    private final ArrayList<BubbleRecord> mDeferred = new ArrayList<>();
+    private boolean mAdmitScheduled;
+    private boolean mClosed;
+
+    private final Runnable mAdmitTask = new Runnable() {
+        @Override
+        public void run() {
+            handleAdmit();
+        }
+    };
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainCommands();
+        }
+    };
+
+    BubbleManager(BubbleScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    interface Callback {
+        void show();
+
+        void dismiss(int event);
+
+        /**
+         * Take over the content of {@code source}, which has been coalesced into this Bubble and
+         * will not be shown.
+         */
+        void update(Callback source);
+
+        /**
+         * Collapse {@code source}, which will not be shown, into this Bubble, which becomes a
+         * summary of {@code count} Bubbles, itself included.
+         *
+         * @param group The group the summary is titled after, or null.
+         * @param title The title of the summary, or null for the default one built from
+         *              {@code count} and {@code group}.
+         */
+        void collapse(Callback source, int count, String group, CharSequence title);
+
+        /**
+         * The window of the Bubble is gone: let go of everything without animating or calling
+         * back.
+         */
+        void release();
+    }
+
+    /**
+     * Returns true if the caller runs on the main thread. Any command posted from another thread
+     * is run first, so the caller sees the state in call order.
+     */
+    private boolean enterMainThread() {
+        if (!mScheduler.isCurrentThread()) {
+            return false;
+        }
+        drainCommands();
+        mInlineCount++;
+        return true;
+    }
+
+    /**
+     * Hands a command from another thread over to the main thread.
+     */
+    private void post(Runnable command) {
+        mCommands.offer(command);
+        mHandoffCount.incrementAndGet();
+        final int backlog = mBacklog.incrementAndGet();
+        int max;
+        while (backlog > (max = mMaxBacklog.get())
+                && !mMaxBacklog.compareAndSet(max, backlog)) {
+            // Retry until the maximum is up to date
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mScheduler.post(mDrainTask);
+        }
+    }
+
+    private void drainCommands() {
+        // Clear the flag first, so commands posted while we drain schedule another pass
+        if (!mDrainScheduled.getAndSet(false) && mCommands.isEmpty()) {
+            return;
+        }
+        mDrainCount.incrementAndGet();
+        Runnable command;
+        while ((command = mCommands.poll()) != null) {
+            mBacklog.decrementAndGet();
+            command.run();
+        }
+    }
+
+    /**
+     * Returns how many calls ran directly on the main thread.
+     */
+    long getInlineCount() {
+        return mInlineCount;
+    }
+
+    /**
+     * Returns how many calls were handed over from other threads.
+     */
+    long getHandoffCount() {
+        return mHandoffCount.get();
+    }
+
+    /**
+     * Returns how many times handed over calls were run on the main thread.
+     */
+    long getDrainCount() {
+        return mDrainCount.get();
+    }
+
+    /**
+     * Returns how many handed over calls are waiting to run.
+     */
+    int getBacklog() {
+        return mBacklog.get();
+    }
+
+    /**
+     * Returns the largest number of handed over calls that were waiting at once.
+     */
+    int getMaxBacklog() {
+        return mMaxBacklog.get();
+    }
+
+    /**
+     * Set how many Bubbles may wait behind the current one. Bubbles above the new capacity are
+     * dropped, lowest priority first.
+     */
+    void setQueueCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        mQueueCapacity = capacity;
+        if (!enterMainThread()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    trimQueue();
+                }
+            });
+            return;
+        }
+        trimQueue();
+    }
+
+    private void trimQueue() {
+        while (mQueue.size() > mQueueCapacity) {
+            drop(mQueue.remove(mQueue.size() - 1));
+        }
+    }
+
+    int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * Set how many Bubbles may be shown at once. Raising it shows queued Bubbles right away;
+     * lowering it lets the extra Bubbles run until they are dismissed.
+     */
+    void setMaxVisible(int maxVisible) {
+        if (maxVisible < 1) {
+            throw new IllegalArgumentException("maxVisible < 1");
+        }
+        mMaxVisible = maxVisible;
+        if (!enterMainThread()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    showNextBubble();
+                }
+            });
+            return;
+        }
+        showNextBubble();
+    }
+
+    int getMaxVisible() {
+        return mMaxVisible;
+    }
+
+    /**
+     * Set what happens when a Bubble is shown while the queue is full.
+     */
+    void setOverflowPolicy(@Constant.OverflowPolicy int policy) {
+        mOverflowPolicy = policy;
+    }
+
+    @Constant.OverflowPolicy
+    int getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * Set the throttle Bubbles have to pass before being queued, or null to admit every Bubble.
+     */
+    void setThrottle(BubbleThrottle throttle) {
+        mThrottle = throttle;
+        if (throttle == null) {
+            // Nothing to wait for any more
+            if (!enterMainThread()) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleAdmit();
+                    }
+                });
+                return;
+            }
+            handleAdmit();
+        }
+    }
+
+    BubbleThrottle getThrottle() {
+        return mThrottle;
+    }
+
+    /**
+     * Set the listener that receives the measurements of the Bubble pipeline, or null.
+     */
+    void setMetricsListener(BubbleMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    BubbleMetrics getMetricsListener() {
+        return mMetrics;
+    }
 
-    static BubbleManager getInstance() {
-        if (sBubbleManager == null) {
-            sBubbleManager = new BubbleManager();
+    /**
+     * Set the coordinator that limits the visible Bubbles across managers, or null to only
+     * apply {@link #getMaxVisible()}. Bubbles already shown keep the slot they took.
+     */
+    void setCoordinator(final BubbleCoordinator coordinator) {
+        if (!enterMainThread()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    setCoordinatorInternal(coordinator);
+                }
+            });
+            return;
+        }
+        setCoordinatorInternal(coordinator);
+    }
+
+    private void setCoordinatorInternal(BubbleCoordinator coordinator) {
+        final BubbleCoordinator previous = mCoordinator;
+        if (previous == coordinator) {
+            return;
         }
-        return sBubbleManager;
+        if (previous != null) {
+            previous.remove(this);
+        }
+        mCoordinator = coordinator;
+        showNextBubble();
     }
 
-    private final Object mLock;
-    private final Handler mHandler;
+    BubbleCoordinator getCoordinator() {
+        return mCoordinator;
+    }
 
-    private BubbleRecord mCurrentBubble;
-    private BubbleRecord mNextBubble;
+    /**
+     * Set the digest that collapses bursts of Bubbles, or null to show every Bubble on its own.
+     * Takes effect from the next Bubble to be shown.
+     */
+    void setDigest(BubbleDigest digest) {
+        mDigest = digest;
+    }
 
-    private BubbleManager() {
-        mLock = new Object();
-        mHandler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
-            @Override
-            public boolean handleMessage(Message message) {
-                switch (message.what) {
-                    case MSG_TIMEOUT:
-                        handleTimeout((BubbleRecord) message.obj);
-                        return true;
+    BubbleDigest getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * Called by the coordinator when a slot may be free. Main thread only.
+     */
+    void resume() {
+        enterMainThread();
+        showNextBubble();
+    }
+
+    public void show(int duration, int priority, String key, Callback callback) {
+        show(duration, priority, key, null, callback);
+    }
+
+    /**
+     * @param group The digest group of the Bubble, or null.
+     */
+    public void show(final int duration, final int priority, final String key,
+                     final String group, final Callback callback) {
+        if (!enterMainThread()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    showInternal(duration, priority, key, group, callback);
                 }
+            });
+            return;
+        }
+        showInternal(duration, priority, key, group, callback);
+    }
+
+    private void showInternal(int duration, int priority, String key, String group,
+                              Callback callback) {
+        if (mClosed) {
+            // Shown after the window was gone
+            callback.release();
+            return;
+        }
+        final BubbleRecord current = find(mCurrent, callback);
+        if (current != null) {
+            // Means that the callback is already in the queue. We'll just update the duration
+            current.duration = duration;
+
+            // If this is the Bubble currently being shown, call re-schedule it's
+            // timeout
+            mScheduler.cancel(current);
+            scheduleTimeout(current);
+            return;
+        }
+
+        final BubbleRecord deferred = find(mDeferred, callback);
+        if (deferred != null) {
+            // Still waiting for the throttle, just update it
+            deferred.duration = duration;
+            deferred.priority = priority;
+            return;
+        }
+
+        BubbleRecord record = find(mQueue, callback);
+        if (record == null) {
+            if (collapse(duration, priority, key, group, callback)) {
+                // Part of a burst, the summary stands for it without taking a token
+                return;
+            }
+            if (!admit(duration, priority, key, group, callback)) {
+                return;
+            }
+        }
+        showAdmitted(record, duration, priority, key, group, callback);
+    }
+
+    /**
+     * Collapses a new Bubble into the summary of its burst, if the digest finds one: the queued
+     * Bubble that started the burst, else the visible one. The summary keeps its place in line,
+     * or on screen, and its timeout restarts. A Bubble is never collapsed into a less important
+     * summary: it is queued on its own instead, so it may preempt the summary.
+     *
+     * @return true if the Bubble has been collapsed.
+     */
+    private boolean collapse(int duration, int priority, String key, String group,
+                             Callback callback) {
+        final BubbleDigest digest = mDigest;
+        if (digest == null) {
+            return false;
+        }
+        if (key != null && (find(mCurrent, key) != null || find(mQueue, key) != null)) {
+            // An update of a Bubble already there, not a new one
+            return false;
+        }
+        final long now = mScheduler.now();
+        BubbleRecord summary = findSummary(mQueue, digest, priority, group, now);
+        final boolean queued = summary != null;
+        if (!queued) {
+            summary = findSummary(mCurrent, digest, priority, group, now);
+            if (summary == null) {
                 return false;
             }
-        });
+        }
+        final Callback target = summary.callback.get();
+        if (target == null) {
+            return false;
+        }
+        summary.collapsedCount++;
+        target.collapse(callback, summary.collapsedCount, digest.summaryGroup(summary.group),
+                digest.format(summary.group, summary.collapsedCount));
+        digest.onCollapsed();
+        summary.duration = duration;
+        if (!queued && !summary.paused) {
+            scheduleTimeout(summary);
+        }
+        return true;
     }
 
-    interface Callback {
-        void show();
+    private static BubbleRecord findSummary(ArrayList<BubbleRecord> records, BubbleDigest digest,
+                                            int priority, String group, long now) {
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final BubbleRecord record = records.get(i);
+            if (!record.cancelled && priority <= record.priority
+                    && digest.canCollapse(group, record.group, record.enqueueTime, now)) {
+                return record;
+            }
+        }
+        return null;
+    }
 
-        void dismiss(int event);
+    /**
+     * Runs a new Bubble through the throttle.
+     *
+     * @return true if the Bubble may be queued now.
+     */
+    private boolean admit(int duration, int priority, String key, String group,
+                          Callback callback) {
+        final BubbleThrottle throttle = mThrottle;
+        if (throttle == null) {
+            return true;
+        }
+        final long delay = throttle.tryAcquire(key, mScheduler.now());
+        if (delay == 0) {
+            return true;
+        }
+        if (throttle.getPolicy() == Constant.THROTTLE_DEFER) {
+            if (mDeferred.size() >= mQueueCapacity) {
+                // Don't let deferred Bubbles pile up, make room by dropping the oldest
+                final BubbleRecord oldest = mDeferred.remove(0);
+                throttle.onDropped();
+                drop(oldest);
+            }
+            throttle.onDeferred();
+            mDeferred.add(new BubbleRecord(duration, priority, key, group, mSequence++,
+                    callback));
+            if (!mAdmitScheduled) {
+                mAdmitScheduled = true;
+                mScheduler.postDelayed(mAdmitTask, mAdmitTask, delay);
+            }
+        } else {
+            throttle.onDropped();
+            final BubbleMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onDropped();
+            }
+            callback.dismiss(orientsec.bubble.Callback.DISMISS_EVENT_DROPPED);
+        }
+        return false;
     }
 
-    public void show(int duration, Callback callback) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback)) {
-                // Means that the callback is already in the queue. We'll just update the duration
-                mCurrentBubble.duration = duration;
+    /**
+     * Retries the deferred Bubbles in order, until the throttle holds one back again.
+     */
+    void handleAdmit() {
+        mScheduler.cancel(mAdmitTask);
+        mAdmitScheduled = false;
+        while (!mDeferred.isEmpty()) {
+            final BubbleRecord record = mDeferred.get(0);
+            // Held by the record while deferred, so it is either admitted or dropped
+            final Callback callback = record.pending;
+            final BubbleThrottle throttle = mThrottle;
+            final long delay = throttle != null
+                    ? throttle.tryAcquire(record.key, mScheduler.now()) : 0;
+            if (delay > 0) {
+                mAdmitScheduled = true;
+                mScheduler.postDelayed(mAdmitTask, mAdmitTask, delay);
+                return;
+            }
+            mDeferred.remove(0);
+            showAdmitted(null, record.duration, record.priority, record.key, record.group,
+                    callback);
+        }
+    }
 
-                // If this is the Bubble currently being shown, call re-schedule it's
-                // timeout
-                mHandler.removeCallbacksAndMessages(mCurrentBubble);
-                scheduleTimeoutLocked(mCurrentBubble);
+    /**
+     * Queues, coalesces or updates an admitted Bubble.
+     *
+     * @param record The queued record of {@code callback}, if any.
+     */
+    private void showAdmitted(BubbleRecord record, int duration, int priority, String key,
+                              String group, Callback callback) {
+        if (record == null && key != null) {
+            final BubbleRecord shown = find(mCurrent, key);
+            if (shown != null && !shown.cancelled) {
+                final Callback current = shown.callback.get();
+                if (current != null) {
+                    // Update the current Bubble in place and restart its timeout
+                    current.update(callback);
+                    shown.duration = duration;
+                    if (!shown.paused) {
+                        scheduleTimeout(shown);
+                    }
+                    return;
+                }
+            }
+            final BubbleRecord queued = find(mQueue, key);
+            final Callback target = queued != null ? queued.callback.get() : null;
+            if (target != null) {
+                // Update the queued Bubble in place, it keeps its place in line
+                target.update(callback);
+                if (priority < queued.priority) {
+                    // Never lower the priority of an update
+                    priority = queued.priority;
+                }
+                record = queued;
+            }
+        }
+        if (record != null) {
+            // We'll just update the duration and, if needed, the position in the queue
+            record.duration = duration;
+            if (record.priority != priority) {
+                mQueue.remove(record);
+                record.priority = priority;
+                insert(record);
+            }
+        } else {
+            // Else, we need to create a new record and queue it
+            record = new BubbleRecord(duration, priority, key, group, mSequence++, callback);
+            if (!enqueue(record)) {
+                drop(record);
                 return;
-            } else if (isNextBubbleLocked(callback)) {
-                // We'll just update the duration
-                mNextBubble.duration = duration;
-            } else {
-                // Else, we need to create a new record and queue it
-                mNextBubble = new BubbleRecord(duration, callback);
             }
+        }
 
-            if (mCurrentBubble != null && cancelBubbleLocked(mCurrentBubble,
-                    orientsec.bubble.Callback.DISMISS_EVENT_CONSECUTIVE)) {
-                // If we currently have a Bubble, try and cancel it and wait in line
+        pruneCurrent();
+        if (mCurrent.size() < mMaxVisible) {
+            // A slot is free, just show the head of the queue now
+            showNextBubble();
+        } else if (mQueue.get(0) == record) {
+            preemptFor(record);
+        }
+    }
+
+    /**
+     * Cancels the least important current Bubble that {@code record} may replace: one with a
+     * lower priority, or one that would never time out. The next Bubble is shown once it has
+     * been hidden.
+     */
+    private void preemptFor(BubbleRecord record) {
+        BubbleRecord victim = null;
+        for (int i = 0, size = mCurrent.size(); i < size; i++) {
+            final BubbleRecord current = mCurrent.get(i);
+            if (current.cancelled) {
+                // A slot is already being freed, the head of the queue gets it
                 return;
-            } else {
-                // Clear out the current Bubble
-                mCurrentBubble = null;
-                // Otherwise, just show it now
-                showNextBubbleLocked();
             }
+            if (record.priority > current.priority
+                    || current.duration == Constant.LENGTH_INDEFINITE) {
+                if (victim == null || current.priority < victim.priority
+                        || (current.priority == victim.priority
+                        && current.sequence < victim.sequence)) {
+                    victim = current;
+                }
+            }
+        }
+        if (victim != null) {
+            cancelBubble(victim, orientsec.bubble.Callback.DISMISS_EVENT_CONSECUTIVE);
         }
     }
 
-    public void dismiss(Callback callback, int event) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback)) {
-                cancelBubbleLocked(mCurrentBubble, event);
-            } else if (isNextBubbleLocked(callback)) {
-                cancelBubbleLocked(mNextBubble, event);
+    /**
+     * Clears out the current Bubbles whose callback is gone.
+     */
+    private void pruneCurrent() {
+        for (int i = mCurrent.size() - 1; i >= 0; i--) {
+            final BubbleRecord current = mCurrent.get(i);
+            if (current.callback.get() == null) {
+                mScheduler.cancel(current);
+                mCurrent.remove(i);
+                releaseSlot(current);
             }
         }
     }
 
+    public void dismiss(final Callback callback, final int event) {
+        if (!enterMainThread()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    dismissInternal(callback, event);
+                }
+            });
+            return;
+        }
+        dismissInternal(callback, event);
+    }
+
+    private void dismissInternal(Callback callback, int event) {
+        BubbleRecord record = find(mCurrent, callback);
+        if (record != null) {
+            cancelBubble(record, event);
+            return;
+        }
+        record = find(mQueue, callback);
+        if (record != null) {
+            // A queued Bubble was never shown, take it out of line before telling it
+            mQueue.remove(record);
+            cancelBubble(record, event);
+            return;
+        }
+        record = find(mDeferred, callback);
+        if (record != null) {
+            mDeferred.remove(record);
+            cancelBubble(record, event);
+        }
+    }
+
     /**
      * Should be called when a Bubble is no longer displayed. This is after any exit
-     * animation has finished.
+     * animation has finished. Main thread only.
      */
     public void onDismissed(Callback callback) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback)) {
-                // If the callback is from a Bubble currently show, remove it and show a new one
-                mCurrentBubble = null;
-                if (mNextBubble != null) {
-                    showNextBubbleLocked();
-                }
-            }
+        enterMainThread();
+        final BubbleRecord record = find(mCurrent, callback);
+        if (record != null) {
+            // If the callback is from a Bubble currently show, remove it and show a new one
+            mScheduler.cancel(record);
+            mCurrent.remove(record);
+            releaseSlot(record);
+            showNextBubble();
         }
     }
 
     /**
      * Should be called when a Bubble is being shown. This is after any entrance animation has
-     * finished.
+     * finished. Main thread only.
      */
     public void onShown(Callback callback) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback)) {
-                scheduleTimeoutLocked(mCurrentBubble);
-            }
+        enterMainThread();
+        final BubbleRecord record = find(mCurrent, callback);
+        if (record != null) {
+            scheduleTimeout(record);
         }
     }
 
+    /**
+     * Main thread only.
+     */
     public void pauseTimeout(Callback callback) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback) && !mCurrentBubble.paused) {
-                mCurrentBubble.paused = true;
-                mHandler.removeCallbacksAndMessages(mCurrentBubble);
-            }
+        enterMainThread();
+        final BubbleRecord record = find(mCurrent, callback);
+        if (record != null && !record.paused) {
+            record.paused = true;
+            mScheduler.cancel(record);
         }
     }
 
+    /**
+     * Main thread only.
+     */
     public void restoreTimeoutIfPaused(Callback callback) {
-        synchronized (mLock) {
-            if (isCurrentBubbleLocked(callback) && mCurrentBubble.paused) {
-                mCurrentBubble.paused = false;
-                scheduleTimeoutLocked(mCurrentBubble);
-            }
+        enterMainThread();
+        final BubbleRecord record = find(mCurrent, callback);
+        if (record != null && record.paused) {
+            record.paused = false;
+            scheduleTimeout(record);
         }
     }
 
-    public boolean isCurrent(Callback callback) {
-        synchronized (mLock) {
-            return isCurrentBubbleLocked(callback);
+    /**
+     * Forgets every current, queued and deferred Bubble and releases them, e.g. because their
+     * window is being destroyed. Their timeouts are cancelled and their coordinator slots given
+     * back, so nothing scheduled keeps them reachable. Bubbles shown afterwards are released
+     * right away. Main thread only.
+     */
+    void close() {
+        // Run what other threads posted so far, it is released with the rest
+        enterMainThread();
+        mClosed = true;
+        mScheduler.cancel(mAdmitTask);
+        mAdmitScheduled = false;
+        final BubbleCoordinator coordinator = mCoordinator;
+        if (coordinator != null) {
+            coordinator.remove(this);
+        }
+        final ArrayList<Callback> released = new ArrayList<>();
+        collect(mCurrent, released);
+        collect(mQueue, released);
+        collect(mDeferred, released);
+        // Release once the state is consistent, in case a callback calls back into us
+        for (int i = 0, size = released.size(); i < size; i++) {
+            released.get(i).release();
         }
     }
 
-    public boolean isCurrentOrNext(Callback callback) {
-        synchronized (mLock) {
-            return isCurrentBubbleLocked(callback) || isNextBubbleLocked(callback);
+    private void collect(ArrayList<BubbleRecord> records, ArrayList<Callback> callbacks) {
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final BubbleRecord record = records.get(i);
+            mScheduler.cancel(record);
+            releaseSlot(record);
+            final Callback callback = record.callback.get();
+            if (callback != null) {
+                callbacks.add(callback);
+            }
         }
+        records.clear();
+    }
+
+    /**
+     * Returns true once {@link #close()} has been called.
+     */
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Main thread only.
+     */
+    public boolean isCurrent(Callback callback) {
+        return isCurrentBubble(callback);
     }
 
-    private static class BubbleRecord {
+    /**
+     * Main thread only.
+     */
+    public boolean isCurrentOrQueued(Callback callback) {
+        return isCurrentBubble(callback) || find(mQueue, callback) != null
+                || find(mDeferred, callback) != null;
+    }
+
+    /**
+     * Runs as the timeout of the Bubble it records.
+     */
+    private class BubbleRecord implements Runnable {
+        // Weak once visible, the window holds the view of the Bubble then
         final WeakReference<Callback> callback;
+        // Held until the Bubble is shown: a queued or deferred Bubble may be referenced by
+        // nothing else, e.g. after Bubble.make().show(). Released by close() with the rest.
+        Callback pending;
+        final String key;
+        final String group;
+        final long sequence;
+        final long enqueueTime;
         int duration;
+        int priority;
         boolean paused;
-
-        BubbleRecord(int duration, Callback callback) {
+        boolean cancelled;
+        // The coordinator this Bubble took a slot from, if any
+        BubbleCoordinator coordinator;
+        // How many Bubbles this one stands for, itself included
+        int collapsedCount = 1;
+
+        BubbleRecord(int duration, int priority, String key, String group, long sequence,
+                     Callback callback) {
             this.callback = new WeakReference<>(callback);
+            this.pending = callback;
+            this.key = key;
+            this.group = group;
             this.duration = duration;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueueTime = mScheduler.now();
+        }
+
+        @Override
+        public void run() {
+            handleTimeout(this);
         }
 
         boolean isBubble(Callback callback) {
             return callback != null && this.callback.get() == callback;
         }
+
+        /**
+         * Returns true if this record should be shown before {@code other}.
+         */
+        boolean isBefore(BubbleRecord other) {
+            if (priority != other.priority) {
+                return priority > other.priority;
+            }
+            return sequence < other.sequence;
+        }
     }
 
-    private void showNextBubbleLocked() {
-        if (mNextBubble != null) {
-            mCurrentBubble = mNextBubble;
-            mNextBubble = null;
+    /**
+     * Adds the record to the queue, applying the overflow policy if the queue is full.
+     *
+     * @return false if the record has been rejected.
+     */
+    private boolean enqueue(BubbleRecord record) {
+        if (mQueue.size() >= mQueueCapacity) {
+            final BubbleRecord evicted;
+            switch (mOverflowPolicy) {
+                case Constant.OVERFLOW_DROP_OLDEST:
+                    evicted = findOldest();
+                    break;
+                case Constant.OVERFLOW_DROP_LOWEST:
+                    evicted = findLowest();
+                    if (record.priority < evicted.priority) {
+                        // The new Bubble is the least important one
+                        return false;
+                    }
+                    break;
+                case Constant.OVERFLOW_REJECT:
+                default:
+                    return false;
+            }
+            mQueue.remove(evicted);
+            drop(evicted);
+        }
+        insert(record);
+        return true;
+    }
 
-            final Callback callback = mCurrentBubble.callback.get();
-            if (callback != null) {
-                callback.show();
-            } else {
-                // The callback doesn't exist any more, clear out the Bubble
-                mCurrentBubble = null;
+    private void insert(BubbleRecord record) {
+        int index = mQueue.size();
+        while (index > 0 && record.isBefore(mQueue.get(index - 1))) {
+            index--;
+        }
+        mQueue.add(index, record);
+    }
+
+    private BubbleRecord findOldest() {
+        BubbleRecord oldest = mQueue.get(0);
+        for (int i = 1, size = mQueue.size(); i < size; i++) {
+            final BubbleRecord record = mQueue.get(i);
+            if (record.sequence < oldest.sequence) {
+                oldest = record;
             }
         }
+        return oldest;
     }
 
-    private boolean cancelBubbleLocked(BubbleRecord record, int event) {
+    private BubbleRecord findLowest() {
+        // The queue is sorted, so the lowest priority records sit at the end, oldest first
+        final int lowest = mQueue.get(mQueue.size() - 1).priority;
+        int index = mQueue.size() - 1;
+        while (index > 0 && mQueue.get(index - 1).priority == lowest) {
+            index--;
+        }
+        return mQueue.get(index);
+    }
+
+    private static BubbleRecord find(ArrayList<BubbleRecord> records, Callback callback) {
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final BubbleRecord record = records.get(i);
+            if (record.isBubble(callback)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private static BubbleRecord find(ArrayList<BubbleRecord> records, String key) {
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final BubbleRecord record = records.get(i);
+            if (key.equals(record.key)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    private void drop(BubbleRecord record) {
+        final BubbleMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onDropped();
+        }
+        cancelBubble(record, orientsec.bubble.Callback.DISMISS_EVENT_DROPPED);
+    }
+
+    private void showNextBubble() {
+        while (mCurrent.size() < mMaxVisible && !mQueue.isEmpty()) {
+            final BubbleRecord record = mQueue.get(0);
+            final Callback callback = record.pending;
+            final BubbleCoordinator coordinator = mCoordinator;
+            if (coordinator != null) {
+                if (!coordinator.tryAcquire(this)) {
+                    // Another window holds the slots, we'll be resumed once one is free
+                    return;
+                }
+                record.coordinator = coordinator;
+            }
+            mQueue.remove(0);
+            record.pending = null;
+            final BubbleMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onQueueWait(mScheduler.now() - record.enqueueTime);
+            }
+            mCurrent.add(record);
+            callback.show();
+        }
+    }
+
+    /**
+     * Gives back the coordinator slot of a record that left the current Bubbles.
+     */
+    private void releaseSlot(BubbleRecord record) {
+        final BubbleCoordinator coordinator = record.coordinator;
+        if (coordinator != null) {
+            record.coordinator = null;
+            coordinator.release();
+        }
+    }
+
+    private boolean cancelBubble(BubbleRecord record, int event) {
         final Callback callback = record.callback.get();
         if (callback != null) {
             // Make sure we remove any timeouts for the BubbleRecord
-            mHandler.removeCallbacksAndMessages(record);
-            callback.dismiss(event);
+            mScheduler.cancel(record);
+            if (!record.cancelled) {
+                record.cancelled = true;
+                callback.dismiss(event);
+            }
             return true;
         }
         return false;
     }
 
-    private boolean isCurrentBubbleLocked(Callback callback) {
-        return mCurrentBubble != null && mCurrentBubble.isBubble(callback);
-    }
-
-    private boolean isNextBubbleLocked(Callback callback) {
-        return mNextBubble != null && mNextBubble.isBubble(callback);
+    private boolean isCurrentBubble(Callback callback) {
+        return find(mCurrent, callback) != null;
     }
 
-    private void scheduleTimeoutLocked(BubbleRecord r) {
+    private void scheduleTimeout(BubbleRecord r) {
         if (r.duration == Constant.LENGTH_INDEFINITE) {
             // If we're set to indefinite, we don't want to set a timeout
             return;
@@ -229,15 +990,13 @@ class BubbleManager {
         } else if (r.duration == Constant.LENGTH_SHORT) {
             durationMs = SHORT_DURATION_MS;
         }
-        mHandler.removeCallbacksAndMessages(r);
-        mHandler.sendMessageDelayed(Message.obtain(mHandler, MSG_TIMEOUT, r), durationMs);
+        mScheduler.cancel(r);
+        mScheduler.postDelayed(r, r, durationMs);
     }
 
     void handleTimeout(BubbleRecord record) {
-        synchronized (mLock) {
-            if (mCurrentBubble == record || mNextBubble == record) {
-                cancelBubbleLocked(record, orientsec.bubble.Callback.DISMISS_EVENT_TIMEOUT);
-            }
+        if (mCurrent.contains(record)) {
+            cancelBubble(record, orientsec.bubble.Callback.DISMISS_EVENT_TIMEOUT);
         }
     }
 
@@ -0,0 +1,213 @@
+package orientsec.bubble;
+
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Holds the {@link BubbleManager}s of the app, one per window, and the settings they share.
+ * Kept apart from {@link BubbleManager} so that class stays free of Android dependencies.
+ * <p>
+ * A manager lives as long as the root view of its window. Settings changed through
+ * {@link Bubble} apply to the managers of every window, current and future.
+ */
+final class BubbleManagers {
+
+    private static final BubbleScheduler sScheduler = new MainThreadScheduler();
+
+    // Every manager made so far, guarded by itself
+    private static final ArrayList<WeakReference<BubbleManager>> sManagers = new ArrayList<>();
+
+    private static int sQueueCapacity = BubbleManager.DEFAULT_QUEUE_CAPACITY;
+    @Constant.OverflowPolicy
+    private static int sOverflowPolicy = Constant.OVERFLOW_DROP_OLDEST;
+    private static int sMaxVisible = 1;
+    private static BubbleThrottle sThrottle;
+    private static BubbleDigest sDigest;
+    private static volatile BubbleMetrics sMetrics;
+    // Only replaced on the main thread
+    private static BubbleCoordinator sCoordinator;
+    private static int sGlobalMaxVisible;
+
+    // Brings the coordinator in line with sGlobalMaxVisible, on the main thread like it
+    private static final Runnable sApplyGlobalMaxVisible = new Runnable() {
+        @Override
+        public void run() {
+            final int maxVisible;
+            final BubbleCoordinator coordinator;
+            final ArrayList<BubbleManager> managers;
+            synchronized (sManagers) {
+                maxVisible = sGlobalMaxVisible;
+                if (maxVisible != 0 && sCoordinator != null) {
+                    // Keep the slots already taken, only the limit changes
+                    coordinator = sCoordinator;
+                    managers = null;
+                } else if (maxVisible == 0 && sCoordinator == null) {
+                    return;
+                } else {
+                    coordinator = maxVisible == 0 ? null : new BubbleCoordinator(maxVisible);
+                    sCoordinator = coordinator;
+                    managers = liveManagers();
+                }
+            }
+            if (managers == null) {
+                coordinator.setMaxVisible(maxVisible);
+                return;
+            }
+            for (BubbleManager manager : managers) {
+                manager.setCoordinator(coordinator);
+            }
+        }
+    };
+
+    private BubbleManagers() {
+    }
+
+    /**
+     * Returns the manager of the window that {@code parent} is the root of, making it on first
+     * use. Main thread only.
+     */
+    @NonNull
+    static BubbleManager forWindow(@NonNull ViewGroup parent) {
+        BubbleManager manager = (BubbleManager) parent.getTag(R.id.bubble_manager);
+        if (manager == null) {
+            // Purge the Bubbles of the window once its Activity is destroyed
+            BubbleLifecycle.register(parent.getContext());
+            manager = new BubbleManager(sScheduler);
+            synchronized (sManagers) {
+                manager.setQueueCapacity(sQueueCapacity);
+                manager.setOverflowPolicy(sOverflowPolicy);
+                manager.setMaxVisible(sMaxVisible);
+                manager.setThrottle(sThrottle);
+                manager.setDigest(sDigest);
+                manager.setMetricsListener(sMetrics);
+                manager.setCoordinator(sCoordinator);
+                sManagers.add(new WeakReference<>(manager));
+            }
+            parent.setTag(R.id.bubble_manager, manager);
+        }
+        return manager;
+    }
+
+    /**
+     * Returns the managers still alive, dropping the references to the others. Must hold the
+     * lock of {@link #sManagers}, but call into the managers once it is released: they may
+     * show Bubbles right away.
+     */
+    private static ArrayList<BubbleManager> liveManagers() {
+        final ArrayList<BubbleManager> managers = new ArrayList<>(sManagers.size());
+        for (int i = sManagers.size() - 1; i >= 0; i--) {
+            final BubbleManager manager = sManagers.get(i).get();
+            if (manager == null) {
+                sManagers.remove(i);
+            } else {
+                managers.add(manager);
+            }
+        }
+        return managers;
+    }
+
+    static void setQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sQueueCapacity = capacity;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setQueueCapacity(capacity);
+        }
+    }
+
+    static void setOverflowPolicy(@Constant.OverflowPolicy int policy) {
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sOverflowPolicy = policy;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setOverflowPolicy(policy);
+        }
+    }
+
+    static void setMaxVisible(int maxVisible) {
+        if (maxVisible < 1) {
+            throw new IllegalArgumentException("maxVisible < 1");
+        }
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sMaxVisible = maxVisible;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setMaxVisible(maxVisible);
+        }
+    }
+
+    static void setThrottle(BubbleThrottle throttle) {
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sThrottle = throttle;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setThrottle(throttle);
+        }
+    }
+
+    static void setDigest(BubbleDigest digest) {
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sDigest = digest;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setDigest(digest);
+        }
+    }
+
+    static void setMetricsListener(BubbleMetrics metrics) {
+        final ArrayList<BubbleManager> managers;
+        synchronized (sManagers) {
+            sMetrics = metrics;
+            managers = liveManagers();
+        }
+        for (BubbleManager manager : managers) {
+            manager.setMetricsListener(metrics);
+        }
+    }
+
+    /**
+     * Returns the metrics listener shared by the managers, for the work done outside of them.
+     */
+    static BubbleMetrics getMetricsListener() {
+        return sMetrics;
+    }
+
+    /**
+     * Set how many Bubbles may be visible at once across all windows, or 0 to let each window
+     * show up to its own maximum regardless of the others.
+     */
+    static void setGlobalMaxVisible(int maxVisible) {
+        if (maxVisible < 0) {
+            throw new IllegalArgumentException("maxVisible < 0");
+        }
+        synchronized (sManagers) {
+            sGlobalMaxVisible = maxVisible;
+        }
+        // The coordinator is confined to the main thread, like the managers using it. Applied
+        // from the latest value, so calls from several threads settle on the last one.
+        if (sScheduler.isCurrentThread()) {
+            sApplyGlobalMaxVisible.run();
+        } else {
+            sScheduler.post(sApplyGlobalMaxVisible);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package orientsec.bubble;
+
+/**
+ * Remembers the heights Bubbles were measured at, by the width their container leaves them and
+ * content signature (see {@link BubbleLayout#getContentSignature()}), so a Bubble showing the
+ * same content as a recent one in the same kind of container doesn't need to be measured before
+ * it is attached.
+ * <p>
+ * A small ring of entries in primitive arrays: looking up and storing allocate nothing. Main
+ * thread only.
+ */
+final class BubbleMeasureCache {
+
+    static final int NO_HEIGHT = -1;
+
+    private static final int DEFAULT_SIZE = 8;
+
+    private final long[] mKeys;
+    private final int[] mHeights;
+    private int mSize;
+    private int mNext;
+
+    BubbleMeasureCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    BubbleMeasureCache(int size) {
+        mKeys = new long[size];
+        mHeights = new int[size];
+    }
+
+    /**
+     * Returns the height measured for {@code signature} at {@code width}, or {@link #NO_HEIGHT}.
+     */
+    int get(int width, int signature) {
+        final long key = key(width, signature);
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i] == key) {
+                return mHeights[i];
+            }
+        }
+        return NO_HEIGHT;
+    }
+
+    /**
+     * Stores a height, replacing the oldest entry once full.
+     */
+    void put(int width, int signature, int height) {
+        final long key = key(width, signature);
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i] == key) {
+                mHeights[i] = height;
+                return;
+            }
+        }
+        mKeys[mNext] = key;
+        mHeights[mNext] = height;
+        mNext = (mNext + 1) % mKeys.length;
+        if (mSize < mKeys.length) {
+            mSize++;
+        }
+    }
+
+    void clear() {
+        mSize = 0;
+        mNext = 0;
+    }
+
+    private static long key(int width, int signature) {
+        return ((long) width << 32) | (signature & 0xffffffffL);
+    }
+}
@@ -0,0 +1,40 @@
+package orientsec.bubble;
+
+/**
+ * Receives the measurements of the Bubble pipeline, on the main thread. All durations are in
+ * milliseconds.
+ *
+ * @see Bubble#setMetricsListener(BubbleMetrics)
+ * @see BubbleStats
+ */
+public interface BubbleMetrics {
+    /**
+     * A Bubble view has been inflated, because none could be reused from the pool or ahead of
+     * time by {@link Bubble#prewarm}.
+     */
+    void onInflate(long durationMs);
+
+    /**
+     * A Bubble got a slot to be shown, after waiting in the queue behind the visible ones.
+     * Time held back by a {@link BubbleThrottle} is not included.
+     */
+    void onQueueWait(long waitMs);
+
+    /**
+     * A Bubble became visible, i.e. its entrance finished, this long after it was made.
+     */
+    void onShown(long timeToVisibleMs);
+
+    /**
+     * A Bubble has been hidden.
+     *
+     * @param event     Why the Bubble was dismissed, see {@link Callback.DismissEvent}.
+     * @param visibleMs How long it was visible, or -1 if it never became visible.
+     */
+    void onDismissed(int event, long visibleMs);
+
+    /**
+     * A Bubble has been dropped by the queue or the throttle without being shown.
+     */
+    void onDropped();
+}
@@ -0,0 +1,113 @@
+package orientsec.bubble;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.os.IBinder;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Hosts the Bubbles of an Activity in a panel window of their own, attached to the window token
+ * of the Activity (see {@link Constant#DISPLAY_MODE_PANEL}). Adding or removing a Bubble then
+ * only lays out and dispatches insets to this small view tree, never to the decor view of the
+ * Activity and the screen content below it.
+ * <p>
+ * The panel window is added with the first Bubble and stays, sized to its content, until the
+ * Activity is destroyed.
+ */
+final class BubblePanel extends FrameLayout {
+
+    @Constant.DisplayMode
+    private static volatile int sMode = Constant.DISPLAY_MODE_DECOR;
+
+    private final WindowManager mWindowManager;
+    private final WindowManager.LayoutParams mParams;
+    private boolean mAdded;
+
+    private BubblePanel(Context context) {
+        super(context);
+        mWindowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        mParams = new WindowManager.LayoutParams(WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.TYPE_APPLICATION_PANEL,
+                // Never take the focus nor the touches outside of the Bubbles from the Activity
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                        | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL,
+                // Let the Bubbles cast their shadows
+                PixelFormat.TRANSLUCENT);
+        mParams.gravity = Gravity.TOP;
+        // The Bubbles run their own transitions
+        mParams.windowAnimations = 0;
+        mParams.setTitle("Bubble:" + Integer.toHexString(System.identityHashCode(this)));
+        setClipChildren(false);
+        setClipToPadding(false);
+    }
+
+    /**
+     * Returns the panel above the window that {@code parent} is the root of, adding it on first
+     * use, or null if that window has not been attached yet.
+     */
+    @Nullable
+    static BubblePanel get(@NonNull ViewGroup parent) {
+        BubblePanel panel = (BubblePanel) parent.getTag(R.id.bubble_panel);
+        if (panel == null) {
+            panel = new BubblePanel(parent.getContext());
+            parent.setTag(R.id.bubble_panel, panel);
+        }
+        return panel.attach(parent.getWindowToken()) ? panel : null;
+    }
+
+    /**
+     * Removes the panel above the window that {@code parent} is the root of, if any.
+     */
+    static void remove(@NonNull ViewGroup parent) {
+        final BubblePanel panel = (BubblePanel) parent.getTag(R.id.bubble_panel);
+        if (panel != null) {
+            parent.setTag(R.id.bubble_panel, null);
+            panel.detach();
+        }
+    }
+
+    /**
+     * Set where Bubbles are added. Takes effect from the next Bubble to be shown.
+     */
+    static void setMode(@Constant.DisplayMode int mode) {
+        sMode = mode;
+    }
+
+    @Constant.DisplayMode
+    static int getMode() {
+        return sMode;
+    }
+
+    private boolean attach(IBinder token) {
+        if (!mAdded) {
+            if (token == null) {
+                return false;
+            }
+            mParams.token = token;
+            try {
+                mWindowManager.addView(this, mParams);
+            } catch (WindowManager.BadTokenException e) {
+                // The Activity window is going away
+                return false;
+            }
+            mAdded = true;
+        }
+        return true;
+    }
+
+    private void detach() {
+        if (mAdded) {
+            mAdded = false;
+            mWindowManager.removeViewImmediate(this);
+        }
+    }
+}
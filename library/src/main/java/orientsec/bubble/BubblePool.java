@@ -0,0 +1,294 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+import orientsec.bubble.library.R;
+
+/**
+ * A bounded pool of {@link BubbleLayout}s that have been hidden and can be reused by the next
+ * {@link Bubble#make(Activity, int)} instead of inflating the layout again.
+ * <p>
+ * There is one pool per Activity. It is stored on the window's decor view, so it goes away
+ * together with the window it belongs to.
+ */
+public final class BubblePool {
+
+    private static final int DEFAULT_MAX_SIZE = 3;
+
+    @Constant.RenderMode
+    private static volatile int sRenderMode = Constant.RENDER_MODE_VIEWS;
+
+    private final ArrayDeque<BubbleLayout> mViews = new ArrayDeque<>();
+    private final BubbleMeasureCache mMeasureCache = new BubbleMeasureCache();
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPendingWarmUp;
+    private ViewGroup mWarmUpParent;
+    private boolean mWarmUpScheduled;
+
+    /**
+     * Inflates one view per idle pass of the main thread until the requested warm-up count has
+     * been reached, so pre-inflation never delays a frame by more than one inflation.
+     */
+    private final MessageQueue.IdleHandler mWarmUpHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mPendingWarmUp <= 0 || mWarmUpParent == null
+                    || mViews.size() >= mMaxSize) {
+                mPendingWarmUp = 0;
+                mWarmUpParent = null;
+                mWarmUpScheduled = false;
+                return false;
+            }
+            final BubbleLayout view = inflate(mWarmUpParent);
+            measure(view, mWarmUpParent);
+            view.mPooled = true;
+            mViews.addLast(view);
+            mPendingWarmUp--;
+            mWarmUpScheduled = mPendingWarmUp > 0;
+            if (!mWarmUpScheduled) {
+                mWarmUpParent = null;
+            }
+            return mWarmUpScheduled;
+        }
+    };
+
+    private BubblePool() {
+    }
+
+    /**
+     * Returns the pool used by Bubbles shown in the given Activity.
+     *
+     * @param activity The Activity bubbles are shown in.
+     */
+    @NonNull
+    public static BubblePool get(@NonNull Activity activity) {
+        final ViewGroup parent = Bubble.findRootView(activity);
+        if (parent == null) {
+            throw new IllegalArgumentException("No suitable parent found from the given view. "
+                    + "Please provide a valid view.");
+        }
+        return get(parent);
+    }
+
+    static BubblePool get(@NonNull ViewGroup parent) {
+        BubblePool pool = (BubblePool) parent.getTag(R.id.bubble_pool);
+        if (pool == null) {
+            pool = new BubblePool();
+            parent.setTag(R.id.bubble_pool, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns a reset {@link BubbleLayout} from the pool, or inflates a new one if the pool is
+     * empty.
+     */
+    @NonNull
+    BubbleLayout acquire(@NonNull ViewGroup parent) {
+        BubbleLayout view;
+        while ((view = mViews.pollFirst()) != null) {
+            view.mPooled = false;
+            if (view.getRenderMode() == sRenderMode) {
+                mHitCount++;
+                return view;
+            }
+            // Pooled before the render mode changed, let it go
+        }
+        mMissCount++;
+        return inflate(parent);
+    }
+
+    /**
+     * Hands a hidden {@link BubbleLayout} back to the pool. The view is dropped if the pool is
+     * already full.
+     */
+    void release(@NonNull BubbleLayout view) {
+        if (view.mPooled || view.getParent() != null) {
+            return;
+        }
+        view.reset();
+        if (mViews.size() < mMaxSize) {
+            view.mPooled = true;
+            mViews.addFirst(view);
+        }
+    }
+
+    /**
+     * Pre-inflate up to {@code count} views while the main thread is idle.
+     */
+    void prewarm(@NonNull ViewGroup parent, int count) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("prewarm must be called on the main thread");
+        }
+        if (count > mMaxSize) {
+            mMaxSize = count;
+        }
+        mPendingWarmUp = Math.max(mPendingWarmUp, count - mViews.size());
+        mWarmUpParent = parent;
+        if (!mWarmUpScheduled && mPendingWarmUp > 0) {
+            mWarmUpScheduled = true;
+            Looper.myQueue().addIdleHandler(mWarmUpHandler);
+        }
+    }
+
+    /**
+     * Runs a first measure pass on a detached view, which loads the layout classes and decodes
+     * the drawables before the first Bubble is shown.
+     */
+    private static void measure(BubbleLayout view, ViewGroup parent) {
+        int width = parent.getWidth();
+        if (width <= 0) {
+            width = parent.getResources().getDisplayMetrics().widthPixels;
+        }
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.AT_MOST),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    }
+
+    /**
+     * Returns the height {@code view} will be laid out at in {@code container}, the view it is
+     * about to be added to, so it can be placed before its first layout pass. The view is only
+     * measured, off-window, if no view with the same content has been measured lately at the
+     * width the container leaves it.
+     */
+    int measureHeight(@NonNull BubbleLayout view, @NonNull ViewGroup container) {
+        final ViewGroup.LayoutParams lp = view.getLayoutParams();
+        int horizontalPadding = container.getPaddingLeft() + container.getPaddingRight();
+        if (lp instanceof ViewGroup.MarginLayoutParams) {
+            final ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) lp;
+            horizontalPadding += mlp.leftMargin + mlp.rightMargin;
+        }
+        final int containerWidth = getWidth(container);
+        // Keyed by the room left to the view, which the width of the container sets
+        final int width = Math.max(containerWidth - horizontalPadding, 0);
+        final int signature = view.getContentSignature();
+        if (signature != 0) {
+            final int height = mMeasureCache.get(width, signature);
+            if (height != BubbleMeasureCache.NO_HEIGHT) {
+                return height;
+            }
+        }
+        // Measured as the container will
+        view.measure(ViewGroup.getChildMeasureSpec(
+                View.MeasureSpec.makeMeasureSpec(containerWidth, View.MeasureSpec.EXACTLY),
+                horizontalPadding, lp != null ? lp.width : ViewGroup.LayoutParams.MATCH_PARENT),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        final int height = view.getMeasuredHeight();
+        if (signature != 0) {
+            mMeasureCache.put(width, signature, height);
+        }
+        return height;
+    }
+
+    /**
+     * Returns the width {@code container} is or will be laid out at.
+     */
+    private static int getWidth(ViewGroup container) {
+        if (container.getWidth() > 0) {
+            return container.getWidth();
+        }
+        // Added in this frame, like a stack just put back in its window: as wide as its parent
+        final ViewParent parent = container.getParent();
+        if (parent instanceof View && ((View) parent).getWidth() > 0) {
+            return ((View) parent).getWidth();
+        }
+        return container.getResources().getDisplayMetrics().widthPixels;
+    }
+
+    static BubbleLayout inflate(@NonNull ViewGroup parent) {
+        final long start = SystemClock.uptimeMillis();
+        final LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        final int layout = sRenderMode == Constant.RENDER_MODE_FLAT
+                ? R.layout.bubble_layout_flat : R.layout.bubble_layout_content;
+        final boolean traced = BubbleTrace.begin("Bubble.inflate");
+        final BubbleLayout view;
+        try {
+            view = (BubbleLayout) inflater.inflate(layout, parent, false);
+        } finally {
+            BubbleTrace.end(traced);
+        }
+        final BubbleMetrics metrics = BubbleManagers.getMetricsListener();
+        if (metrics != null) {
+            metrics.onInflate(SystemClock.uptimeMillis() - start);
+        }
+        return view;
+    }
+
+    static void setRenderMode(@Constant.RenderMode int renderMode) {
+        sRenderMode = renderMode;
+    }
+
+    @Constant.RenderMode
+    static int getRenderMode() {
+        return sRenderMode;
+    }
+
+    /**
+     * Set how many hidden views the pool keeps around. Views above the new size are dropped.
+     *
+     * @param maxSize The maximum number of pooled views, {@code 0} disables pooling.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        while (mViews.size() > maxSize) {
+            mViews.pollLast().mPooled = false;
+        }
+    }
+
+    /**
+     * Return the maximum number of pooled views.
+     *
+     * @see #setMaxSize(int)
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Return the number of views currently waiting in the pool.
+     */
+    public int size() {
+        return mViews.size();
+    }
+
+    /**
+     * Return how many times a Bubble was made from a pooled view.
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Return how many times a Bubble had to inflate a new view.
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Drop all pooled views.
+     */
+    public void clear() {
+        mPendingWarmUp = 0;
+        mWarmUpParent = null;
+        mMeasureCache.clear();
+        while (!mViews.isEmpty()) {
+            mViews.pollFirst().mPooled = false;
+        }
+    }
+}
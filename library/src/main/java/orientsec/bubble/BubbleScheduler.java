@@ -0,0 +1,37 @@
+package orientsec.bubble;
+
+/**
+ * Runs the work of a {@link BubbleManager} on its thread and tells it the time.
+ * <p>
+ * On a device this is the main thread and the uptime clock ({@link MainThreadScheduler});
+ * benchmarks and tests plug in their own thread and a virtual clock.
+ */
+interface BubbleScheduler {
+
+    /**
+     * Returns the current time in milliseconds, on a clock that never goes back.
+     */
+    long now();
+
+    /**
+     * Returns true if the caller runs on the thread the scheduler runs tasks on.
+     */
+    boolean isCurrentThread();
+
+    /**
+     * Runs {@code task} on the scheduler thread as soon as possible. May be called from any
+     * thread.
+     */
+    void post(Runnable task);
+
+    /**
+     * Runs {@code task} on the scheduler thread after {@code delayMillis}, unless
+     * {@link #cancel(Object)} is called with {@code token} first.
+     */
+    void postDelayed(Runnable task, Object token, long delayMillis);
+
+    /**
+     * Cancels all the pending tasks posted with {@code token}.
+     */
+    void cancel(Object token);
+}
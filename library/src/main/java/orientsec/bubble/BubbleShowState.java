@@ -0,0 +1,149 @@
+package orientsec.bubble;
+
+import androidx.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Tracks where one Bubble is in its lifecycle, from being queued to being hidden:
+ * <pre>
+ * HIDDEN -> QUEUED -> ATTACHING -> ENTERING -> SHOWN -> EXITING -> HIDDEN
+ *                               \-----------/
+ * </pre>
+ * Every transition is only taken from the states it starts from, and reports whether it was
+ * taken, so the work tied to it runs exactly once per show however often its trigger repeats:
+ * a layout pass after the entrance has started, a second message to show or hide, an
+ * animation ending after it was superseded. Any state but HIDDEN may go to HIDDEN directly,
+ * e.g. for a Bubble dropped from the queue.
+ * <p>
+ * Plain Java and not thread-safe, like the view it belongs to.
+ */
+final class BubbleShowState {
+
+    @IntDef({HIDDEN, QUEUED, ATTACHING, ENTERING, SHOWN, EXITING})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface State {
+    }
+
+    /**
+     * Not shown nor waiting to be.
+     */
+    static final int HIDDEN = 0;
+
+    /**
+     * Handed to the manager, waiting for a slot.
+     */
+    static final int QUEUED = 1;
+
+    /**
+     * Given a slot, added to its parent but not laid out yet.
+     */
+    static final int ATTACHING = 2;
+
+    /**
+     * Laid out, running its entrance.
+     */
+    static final int ENTERING = 3;
+
+    /**
+     * Fully visible, its timeout running.
+     */
+    static final int SHOWN = 4;
+
+    /**
+     * Running its exit.
+     */
+    static final int EXITING = 5;
+
+    @State
+    private int mState = HIDDEN;
+
+    @State
+    int get() {
+        return mState;
+    }
+
+    /**
+     * The Bubble was handed to the manager.
+     */
+    boolean queue() {
+        return move(HIDDEN, QUEUED);
+    }
+
+    /**
+     * The manager gave the Bubble a slot, it is being added to its parent.
+     */
+    boolean attach() {
+        return move(QUEUED, ATTACHING);
+    }
+
+    /**
+     * The Bubble has been laid out. Only the first layout pass after attaching starts the
+     * entrance.
+     *
+     * @param animate Whether the entrance is animated. If not, the Bubble is shown at once.
+     */
+    boolean enter(boolean animate) {
+        return move(ATTACHING, animate ? ENTERING : SHOWN);
+    }
+
+    /**
+     * The entrance has finished, or has been cut short.
+     */
+    boolean entered() {
+        return move(ENTERING, SHOWN);
+    }
+
+    /**
+     * The exit starts. Only a Bubble that made it on screen has one to run.
+     */
+    boolean exit() {
+        return move(SHOWN, EXITING);
+    }
+
+    /**
+     * The Bubble is gone, from whatever state it was in.
+     */
+    boolean hide() {
+        if (mState == HIDDEN) {
+            return false;
+        }
+        mState = HIDDEN;
+        return true;
+    }
+
+    /**
+     * Forgets the current show, without reporting anything.
+     */
+    void reset() {
+        mState = HIDDEN;
+    }
+
+    private boolean move(@State int from, @State int to) {
+        if (mState != from) {
+            return false;
+        }
+        mState = to;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        switch (mState) {
+            case QUEUED:
+                return "QUEUED";
+            case ATTACHING:
+                return "ATTACHING";
+            case ENTERING:
+                return "ENTERING";
+            case SHOWN:
+                return "SHOWN";
+            case EXITING:
+                return "EXITING";
+            case HIDDEN:
+            default:
+                return "HIDDEN";
+        }
+    }
+}
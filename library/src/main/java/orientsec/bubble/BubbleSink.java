@@ -0,0 +1,276 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the items of an event stream as Bubbles, no faster than they can be displayed.
+ * <p>
+ * The sink hands the manager of the window only as many Bubbles as it may show at once (see
+ * {@link Bubble#setMaxVisible(int)}), and the next one once one of them is dismissed. Items
+ * that arrive in the meantime wait in the sink, which applies its strategy:
+ * {@link Constant#SINK_CONFLATE_LATEST}, {@link Constant#SINK_BUFFER_BOUNDED} or
+ * {@link Constant#SINK_DROP_OLDEST}.
+ * <p>
+ * A sink can be fed in two ways:
+ * <ul>
+ * <li>As a subscriber with request(n) semantics, like {@code java.util.concurrent.Flow} or
+ * Reactive Streams: pass the upstream to {@link #onSubscribe(Subscription)}, then call
+ * {@link #onNext(Object)} for each item. With {@link Constant#SINK_BUFFER_BOUNDED} the sink only
+ * requests as many items as it has room for, so the upstream is slowed down to the pace of the
+ * Bubbles; with the other strategies it requests everything and sheds what it can't show.</li>
+ * <li>As a listener, e.g. from a LiveData observer or an event bus callback, with
+ * {@link #offer(Object)}. Nothing can be slowed down then, only shed.</li>
+ * </ul>
+ * Items may be delivered from any thread; Bubbles are made and shown on the main thread. The
+ * sink stops, cancelling its upstream, once its Activity is finishing or destroyed.
+ *
+ * @param <T> The type of the items.
+ */
+public final class BubbleSink<T> {
+
+    /**
+     * Describes the Bubble showing an item. Called on the main thread.
+     */
+    public interface Binder<T> {
+        @NonNull
+        BubbleSpec bind(@NonNull T item);
+    }
+
+    /**
+     * The link to the upstream, as in {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+        /**
+         * Asks for {@code n} more items.
+         */
+        void request(long n);
+
+        /**
+         * Asks the upstream to stop sending items.
+         */
+        void cancel();
+    }
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private final WeakReference<Activity> mActivity;
+    private final Binder<T> mBinder;
+    @Constant.SinkStrategy
+    private final int mStrategy;
+    private final int mCapacity;
+
+    // The items waiting to be shown, guarded by itself
+    private final ArrayDeque<T> mBuffer = new ArrayDeque<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private volatile Subscription mSubscription;
+    private volatile boolean mCancelled;
+    private volatile long mDroppedCount;
+
+    // Bubbles handed to the manager and not dismissed yet, main thread only. Held so a Bubble
+    // that never calls back can't keep the sink from showing anything more.
+    private final ArrayList<Bubble> mInFlight = new ArrayList<>();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable mForgetInFlight = new Runnable() {
+        @Override
+        public void run() {
+            // Their window may be gone, don't keep it reachable from the sink
+            mInFlight.clear();
+        }
+    };
+
+    /**
+     * @param activity The Activity to show the Bubbles in.
+     * @param binder   Describes the Bubble of each item.
+     * @param strategy What to do with the items that arrive faster than they can be shown.
+     * @param capacity How many items may wait to be shown, at least 1. Ignored by
+     *                 {@link Constant#SINK_CONFLATE_LATEST}, which keeps one.
+     */
+    public BubbleSink(@NonNull Activity activity, @NonNull Binder<T> binder,
+                      @Constant.SinkStrategy int strategy, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        mActivity = new WeakReference<>(activity);
+        mBinder = binder;
+        mStrategy = strategy;
+        mCapacity = strategy == Constant.SINK_CONFLATE_LATEST ? 1 : capacity;
+    }
+
+    /**
+     * Starts receiving items from {@code subscription}. A sink has a single upstream: any
+     * later subscription is cancelled right away.
+     */
+    public void onSubscribe(@NonNull Subscription subscription) {
+        synchronized (mBuffer) {
+            if (mSubscription != null || mCancelled) {
+                subscription.cancel();
+                return;
+            }
+            mSubscription = subscription;
+        }
+        subscription.request(mStrategy == Constant.SINK_BUFFER_BOUNDED
+                ? mCapacity : Long.MAX_VALUE);
+    }
+
+    /**
+     * Receives an item requested from the upstream.
+     */
+    public void onNext(@NonNull T item) {
+        offer(item);
+    }
+
+    /**
+     * The upstream failed. The items already received are still shown.
+     */
+    public void onError(@NonNull Throwable throwable) {
+        mSubscription = null;
+    }
+
+    /**
+     * The upstream has no more items. The items already received are still shown.
+     */
+    public void onComplete() {
+        mSubscription = null;
+    }
+
+    /**
+     * Receives an item pushed without being requested, applying the strategy of the sink if
+     * it can't be shown yet.
+     *
+     * @return false if the item has been dropped, either because the buffer is full or the sink
+     * is cancelled. With {@link Constant#SINK_CONFLATE_LATEST} and
+     * {@link Constant#SINK_DROP_OLDEST}, the new item is kept and an older one dropped instead.
+     */
+    public boolean offer(@NonNull T item) {
+        synchronized (mBuffer) {
+            if (mCancelled) {
+                return false;
+            }
+            if (mBuffer.size() >= mCapacity) {
+                mDroppedCount++;
+                if (mStrategy == Constant.SINK_BUFFER_BOUNDED) {
+                    // Sent beyond what was requested, or pushed
+                    return false;
+                }
+                mBuffer.pollFirst();
+            }
+            mBuffer.addLast(item);
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            sHandler.post(mDrainTask);
+        }
+    }
+
+    /**
+     * Stops the sink: cancels the upstream and forgets the items waiting to be shown. Bubbles
+     * already shown are left alone.
+     */
+    public void cancel() {
+        final Subscription subscription;
+        synchronized (mBuffer) {
+            mCancelled = true;
+            mBuffer.clear();
+            subscription = mSubscription;
+            mSubscription = null;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        sHandler.post(mForgetInFlight);
+    }
+
+    /**
+     * Return how many items are waiting to be shown.
+     */
+    public int getBufferedCount() {
+        synchronized (mBuffer) {
+            return mBuffer.size();
+        }
+    }
+
+    /**
+     * Return how many items have been dropped without being shown.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Shows waiting items while the window has room for them. Main thread only.
+     */
+    private void drain() {
+        // Clear the flag first, so items offered while we drain schedule another pass
+        mDrainScheduled.set(false);
+        final Activity activity = mActivity.get();
+        if (activity == null || activity.isFinishing()) {
+            cancel();
+            return;
+        }
+        final ViewGroup parent = Bubble.findRootView(activity);
+        if (parent == null) {
+            return;
+        }
+        final BubbleManager manager = BubbleManagers.forWindow(parent);
+        if (manager.isClosed()) {
+            // Destroyed, e.g. by a configuration change: its Bubbles are released without
+            // being dismissed, so we would never hear back from them
+            cancel();
+            return;
+        }
+        final int maxVisible = manager.getMaxVisible();
+        int taken = 0;
+        while (mInFlight.size() < maxVisible) {
+            final T item;
+            synchronized (mBuffer) {
+                item = mBuffer.pollFirst();
+            }
+            if (item == null) {
+                break;
+            }
+            taken++;
+            show(activity, item);
+        }
+        final Subscription subscription = mSubscription;
+        if (taken > 0 && subscription != null && mStrategy == Constant.SINK_BUFFER_BOUNDED) {
+            // Room was made in the buffer, let the upstream fill it
+            subscription.request(taken);
+        }
+    }
+
+    private void show(Activity activity, T item) {
+        final Bubble bubble = Bubble.make(activity, mBinder.bind(item));
+        mInFlight.add(bubble);
+        // One callback per Bubble, so each is counted even if a digest collapses them
+        bubble.addCallback(new Callback() {
+            @Override
+            public void onDismissed(int event) {
+                mInFlight.remove(bubble);
+                // Posted, so the view of this Bubble is back in the pool for the next one
+                scheduleDrain();
+            }
+        });
+        bubble.show();
+    }
+}
@@ -0,0 +1,242 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.view.View;
+
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable description of a {@link Bubble}. Unlike {@link Bubble} itself, a spec does not
+ * touch any view, so it can be built and submitted from any thread with
+ * {@link Bubble#submit(Activity, BubbleSpec)}.
+ * <p>
+ * Pending specs are collected and bound to their views together in a single pass on the main
+ * thread.
+ */
+public final class BubbleSpec {
+
+    @Nullable
+    final CharSequence title;
+    @StringRes
+    final int titleRes;
+    @Nullable
+    final CharSequence content;
+    @StringRes
+    final int contentRes;
+    @DrawableRes
+    final int iconRes;
+    @Nullable
+    final BubbleIconCache.Source iconSource;
+    final int duration;
+    final int priority;
+    @Nullable
+    final String key;
+    @Nullable
+    final String group;
+    @Nullable
+    final View.OnClickListener action;
+    @NonNull
+    final List<Callback> callbacks;
+
+    private BubbleSpec(Builder builder) {
+        title = builder.mTitle;
+        titleRes = builder.mTitleRes;
+        content = builder.mContent;
+        contentRes = builder.mContentRes;
+        iconRes = builder.mIconRes;
+        iconSource = builder.mIconSource;
+        duration = builder.mDuration;
+        priority = builder.mPriority;
+        key = builder.mKey;
+        group = builder.mGroup;
+        action = builder.mAction;
+        callbacks = builder.mCallbacks.isEmpty()
+                ? Collections.<Callback>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(builder.mCallbacks));
+    }
+
+    /**
+     * Builds a {@link BubbleSpec}. A builder may be used on any thread, but not by several
+     * threads at once.
+     */
+    public static final class Builder {
+        private CharSequence mTitle;
+        private int mTitleRes;
+        private CharSequence mContent;
+        private int mContentRes;
+        private int mIconRes;
+        private BubbleIconCache.Source mIconSource;
+        private int mDuration;
+        private int mPriority = Constant.PRIORITY_NORMAL;
+        private String mKey;
+        private String mGroup;
+        private View.OnClickListener mAction;
+        private final List<Callback> mCallbacks = new ArrayList<>();
+
+        /**
+         * @param duration How long to display the message.  Either {@link Constant#LENGTH_SHORT}
+         *                 or {@link Constant#LENGTH_LONG}
+         */
+        public Builder(@Constant.Duration int duration) {
+            mDuration = duration;
+        }
+
+        /**
+         * @see Bubble#setTitle(CharSequence)
+         */
+        @NonNull
+        public Builder setTitle(@NonNull CharSequence title) {
+            mTitle = freeze(title);
+            mTitleRes = 0;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setTitle(int)
+         */
+        @NonNull
+        public Builder setTitle(@StringRes int resId) {
+            mTitle = null;
+            mTitleRes = resId;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setContent(CharSequence)
+         */
+        @NonNull
+        public Builder setContent(@NonNull CharSequence content) {
+            mContent = freeze(content);
+            mContentRes = 0;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setContent(int)
+         */
+        @NonNull
+        public Builder setContent(@StringRes int resId) {
+            mContent = null;
+            mContentRes = resId;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setIcon(int)
+         */
+        @NonNull
+        public Builder setIcon(@DrawableRes int resId) {
+            mIconRes = resId;
+            mIconSource = null;
+            return this;
+        }
+
+        /**
+         * @see Bubble#loadIcon(int)
+         */
+        @NonNull
+        public Builder loadIcon(@DrawableRes int resId) {
+            mIconRes = 0;
+            mIconSource = BubbleIconCache.fromResource(resId);
+            return this;
+        }
+
+        /**
+         * @see Bubble#loadIcon(File)
+         */
+        @NonNull
+        public Builder loadIcon(@NonNull File file) {
+            mIconRes = 0;
+            mIconSource = BubbleIconCache.fromFile(file);
+            return this;
+        }
+
+        /**
+         * @see Bubble#loadIcon(Uri)
+         */
+        @NonNull
+        public Builder loadIcon(@NonNull Uri uri) {
+            mIconRes = 0;
+            mIconSource = BubbleIconCache.fromUri(uri);
+            return this;
+        }
+
+        /**
+         * @see Bubble#setPriority(int)
+         */
+        @NonNull
+        public Builder setPriority(int priority) {
+            mPriority = priority;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setKey(String)
+         */
+        @NonNull
+        public Builder setKey(@Nullable String key) {
+            mKey = key;
+            return this;
+        }
+
+        /**
+         * @see Bubble#setGroup(String)
+         */
+        @NonNull
+        public Builder setGroup(@Nullable String group) {
+            mGroup = group;
+            return this;
+        }
+
+        /**
+         * The listener is invoked on the main thread.
+         *
+         * @see Bubble#setAction(View.OnClickListener)
+         */
+        @NonNull
+        public Builder setAction(@Nullable View.OnClickListener listener) {
+            mAction = listener;
+            return this;
+        }
+
+        /**
+         * The callback is invoked on the main thread.
+         *
+         * @see BubbleLayout#addCallback(Callback)
+         */
+        @NonNull
+        public Builder addCallback(@NonNull Callback callback) {
+            mCallbacks.add(callback);
+            return this;
+        }
+
+        @NonNull
+        public BubbleSpec build() {
+            return new BubbleSpec(this);
+        }
+    }
+
+    /**
+     * Returns an immutable copy of the text, keeping its spans. Precomputed text is kept as is,
+     * so its measurements are not lost.
+     */
+    private static CharSequence freeze(CharSequence text) {
+        if (text instanceof String || text instanceof SpannedString
+                || text instanceof PrecomputedTextCompat) {
+            return text;
+        }
+        return text instanceof Spanned ? new SpannedString(text) : text.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package orientsec.bubble;
+
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import androidx.annotation.NonNull;
+import androidx.core.view.ViewCompat;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Lays out the Bubbles of a window when more than one may be shown at once (see
+ * {@link Bubble#setMaxVisible(int)}). The newest Bubble sits on top; the older ones are listed
+ * below it ({@link Constant#STACK_MODE_EXPANDED}) or tucked behind it
+ * ({@link Constant#STACK_MODE_COLLAPSED}).
+ * <p>
+ * When a Bubble enters or leaves, only the Bubbles whose position changed are animated to
+ * their new place; the entering and leaving Bubbles run their own transitions. Bubbles are
+ * moved to their new place by offsetting their layout, never through their translation, which
+ * their own transitions own, so a Bubble can be restacked in the middle of its entrance.
+ * <p>
+ * The stack leaves the window once its last Bubble is gone.
+ */
+final class BubbleStack extends ViewGroup implements ViewGroup.OnHierarchyChangeListener,
+        ValueAnimator.AnimatorUpdateListener {
+
+    private static final int ANIMATION_DURATION = 250;
+    private static final int REDUCED_ANIMATION_DURATION = 120;
+    private static final int PEEK_DP = 8;
+    private static final float DEPTH_SCALE = 0.05f;
+    private static final int MAX_DEPTH = 2;
+
+    @Constant.StackMode
+    private static volatile int sMode = Constant.STACK_MODE_EXPANDED;
+
+    private final int mPeek;
+    private final BubbleAnimationPolicy mAnimationPolicy;
+    // Moves the Bubbles from where they were to their new place, see LayoutParams#shift
+    private final ValueAnimator mShiftAnimator = new ValueAnimator();
+
+    private final Runnable mRemoveIfEmpty = new Runnable() {
+        @Override
+        public void run() {
+            final ViewParent parent = getParent();
+            if (getChildCount() == 0 && parent instanceof ViewGroup) {
+                ((ViewGroup) parent).removeView(BubbleStack.this);
+            }
+        }
+    };
+
+    private BubbleStack(Context context) {
+        super(context);
+        mPeek = Math.round(PEEK_DP * context.getResources().getDisplayMetrics().density);
+        mAnimationPolicy = BubbleAnimationPolicy.get(context);
+        setOnHierarchyChangeListener(this);
+        mShiftAnimator.setFloatValues(0f, 1f);
+        mShiftAnimator.setInterpolator(AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+        mShiftAnimator.addUpdateListener(this);
+        // Let the Bubbles cast their shadows outside of the stack
+        setClipChildren(false);
+        setClipToPadding(false);
+    }
+
+    /**
+     * Returns the stack of the window that {@code parent} is the root of, adding it on first
+     * use.
+     */
+    static BubbleStack get(@NonNull ViewGroup parent) {
+        BubbleStack stack = (BubbleStack) parent.getTag(R.id.bubble_stack);
+        if (stack == null) {
+            stack = new BubbleStack(parent.getContext());
+            parent.setTag(R.id.bubble_stack, stack);
+        }
+        if (stack.getParent() == null) {
+            parent.addView(stack, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.WRAP_CONTENT));
+        }
+        return stack;
+    }
+
+    /**
+     * Set how stacks arrange their Bubbles. Takes effect from their next layout pass.
+     */
+    static void setMode(@Constant.StackMode int mode) {
+        sMode = mode;
+    }
+
+    @Constant.StackMode
+    static int getMode() {
+        return sMode;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+        final boolean collapsed = sMode == Constant.STACK_MODE_COLLAPSED;
+        int height = 0;
+        int depth = 0;
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() == View.GONE) {
+                continue;
+            }
+            measureChildWithMargins(child, widthMeasureSpec, 0, heightMeasureSpec, 0);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            final int childHeight = child.getMeasuredHeight() + lp.topMargin + lp.bottomMargin;
+            if (!collapsed) {
+                height += childHeight;
+            } else if (depth == 0) {
+                height = childHeight;
+            } else if (depth <= MAX_DEPTH) {
+                height += mPeek;
+            }
+            depth++;
+        }
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final boolean collapsed = sMode == Constant.STACK_MODE_COLLAPSED;
+        final int animationLevel = mAnimationPolicy.getLevel();
+        boolean shifted = false;
+        int top = getPaddingTop();
+        int frontBottom = 0;
+        int depth = 0;
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            final View child = getChildAt(i);
+            if (child.getVisibility() == View.GONE) {
+                continue;
+            }
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            final int width = child.getMeasuredWidth();
+            final int height = child.getMeasuredHeight();
+            final int childTop;
+            float scale = 1f;
+            if (!collapsed) {
+                childTop = top + lp.topMargin;
+                top = childTop + height + lp.bottomMargin;
+            } else if (depth == 0) {
+                childTop = top + lp.topMargin;
+                frontBottom = childTop + height;
+            } else {
+                // Behind the front Bubble, peeking out at the bottom a little more per level
+                final int level = Math.min(depth, MAX_DEPTH);
+                childTop = frontBottom + level * mPeek - height;
+                scale = 1f - level * DEPTH_SCALE;
+            }
+            shifted |= moveTo(child, lp, childTop, scale, depth <= MAX_DEPTH, animationLevel);
+            final int childLeft = getPaddingLeft() + lp.leftMargin;
+            // Where the child is on its way to its slot, plus the offset of its own transition
+            final int layoutTop = childTop + lp.shift + getTransitionOffset(child);
+            child.layout(childLeft, layoutTop, childLeft + width, layoutTop + height);
+            child.setPivotX(width / 2f);
+            child.setPivotY(height);
+            depth++;
+        }
+        if (shifted) {
+            // Restart from the positions just set, the shifts already running included
+            mShiftAnimator.cancel();
+            for (int i = 0, count = getChildCount(); i < count; i++) {
+                final LayoutParams lp = (LayoutParams) getChildAt(i).getLayoutParams();
+                lp.shiftFrom = lp.shift;
+            }
+            mShiftAnimator.setDuration(animationLevel == Constant.ANIMATION_LEVEL_REDUCED
+                    ? REDUCED_ANIMATION_DURATION : ANIMATION_DURATION);
+            mShiftAnimator.start();
+        }
+    }
+
+    /**
+     * Returns the part of the layout offset of a child that its own transition set, which a
+     * layout pass must keep.
+     */
+    private static int getTransitionOffset(View child) {
+        return child instanceof BubbleLayout ? ((BubbleLayout) child).getLayoutOffset() : 0;
+    }
+
+    @Override
+    public void onAnimationUpdate(ValueAnimator animator) {
+        final float remaining = 1f - animator.getAnimatedFraction();
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp.shiftFrom == 0) {
+                continue;
+            }
+            final int shift = Math.round(lp.shiftFrom * remaining);
+            ViewCompat.offsetTopAndBottom(child, shift - lp.shift);
+            lp.shift = shift;
+            if (shift == 0) {
+                lp.shiftFrom = 0;
+            }
+        }
+    }
+
+    /**
+     * Sets up the move of a Bubble that was already laid out from where it currently is to its
+     * new slot at {@code top}: its shift, and an animation of its scale and alpha. A Bubble
+     * laid out for the first time is left to its own entrance.
+     *
+     * @return true if the Bubble has to be shifted to its slot.
+     */
+    private static boolean moveTo(View child, LayoutParams lp, int top, float scale,
+                                  boolean visible, @Constant.AnimationLevel int level) {
+        final float alpha = visible ? 1f : 0f;
+        boolean shifted = false;
+        if (lp.lastTop == LayoutParams.NO_POSITION) {
+            child.setScaleX(scale);
+            child.setScaleY(scale);
+            child.setAlpha(alpha);
+        } else if (level == Constant.ANIMATION_LEVEL_NONE) {
+            child.animate().cancel();
+            lp.shift = 0;
+            lp.shiftFrom = 0;
+            child.setScaleX(scale);
+            child.setScaleY(scale);
+            child.setAlpha(alpha);
+        } else {
+            if (lp.lastTop != top) {
+                // Start from where the Bubble is now, which may be partway to its previous slot
+                lp.shift += lp.lastTop - top;
+                shifted = true;
+            }
+            if (child.getScaleX() != scale || child.getAlpha() != alpha) {
+                // Its transitions never touch the scale nor the alpha
+                child.animate()
+                        .scaleX(scale)
+                        .scaleY(scale)
+                        .alpha(alpha)
+                        .setDuration(level == Constant.ANIMATION_LEVEL_REDUCED
+                                ? REDUCED_ANIMATION_DURATION : ANIMATION_DURATION)
+                        .setInterpolator(AnimationUtils.FAST_OUT_SLOW_IN_INTERPOLATOR);
+            }
+        }
+        lp.lastTop = top;
+        return shifted;
+    }
+
+    @Override
+    public void onChildViewAdded(View parent, View child) {
+        // The layout params may be left over from an earlier stay in a stack
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        lp.lastTop = LayoutParams.NO_POSITION;
+        lp.shift = 0;
+        lp.shiftFrom = 0;
+        removeCallbacks(mRemoveIfEmpty);
+    }
+
+    @Override
+    public void onChildViewRemoved(View parent, View child) {
+        // Hand the view back as the stack found it, it may be pooled and shown elsewhere
+        child.animate().cancel();
+        child.setScaleX(1f);
+        child.setScaleY(1f);
+        child.setAlpha(1f);
+        if (getChildCount() == 0) {
+            mShiftAnimator.cancel();
+            // Not from within the removal of the child, which may run during a traversal
+            post(mRemoveIfEmpty);
+        }
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        if (p instanceof MarginLayoutParams) {
+            return new LayoutParams((MarginLayoutParams) p);
+        }
+        return new LayoutParams(p);
+    }
+
+    static class LayoutParams extends MarginLayoutParams {
+        static final int NO_POSITION = Integer.MIN_VALUE;
+
+        /**
+         * The top of the slot the child was last laid out in.
+         */
+        int lastTop = NO_POSITION;
+
+        /**
+         * How far the child currently is from its slot, and how far it was when its move
+         * started. Applied as a layout offset.
+         */
+        int shift;
+        int shiftFrom;
+
+        LayoutParams(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        LayoutParams(MarginLayoutParams source) {
+            super(source);
+        }
+
+        LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+        }
+    }
+}
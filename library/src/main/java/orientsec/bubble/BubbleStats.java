@@ -0,0 +1,180 @@
+package orientsec.bubble;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects how long Bubbles take to get on screen and how long they stay there. Install it
+ * with {@link Bubble#setMetricsListener(BubbleMetrics)} and read it from any thread.
+ * <p>
+ * Recording only updates a few counters, so it can be left on in production.
+ */
+public final class BubbleStats implements BubbleMetrics {
+
+    private final Stat mInflate = new Stat();
+    private final Stat mQueueWait = new Stat();
+    private final Stat mTimeToVisible = new Stat();
+    private final Stat mVisible = new Stat();
+    private final AtomicLongArray mDismissEvents =
+            new AtomicLongArray(Callback.DISMISS_EVENT_DROPPED + 1);
+    private final AtomicLong mDropCount = new AtomicLong();
+
+    @Override
+    public void onInflate(long durationMs) {
+        mInflate.add(durationMs);
+    }
+
+    @Override
+    public void onQueueWait(long waitMs) {
+        mQueueWait.add(waitMs);
+    }
+
+    @Override
+    public void onShown(long timeToVisibleMs) {
+        mTimeToVisible.add(timeToVisibleMs);
+    }
+
+    @Override
+    public void onDismissed(int event, long visibleMs) {
+        if (event >= 0 && event < mDismissEvents.length()) {
+            mDismissEvents.incrementAndGet(event);
+        }
+        if (visibleMs >= 0) {
+            mVisible.add(visibleMs);
+        }
+    }
+
+    @Override
+    public void onDropped() {
+        mDropCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the time spent inflating Bubble views.
+     */
+    @NonNull
+    public Timing getInflate() {
+        return mInflate.snapshot();
+    }
+
+    /**
+     * Returns the time Bubbles waited in the queue.
+     */
+    @NonNull
+    public Timing getQueueWait() {
+        return mQueueWait.snapshot();
+    }
+
+    /**
+     * Returns the time from making a Bubble to the end of its entrance.
+     */
+    @NonNull
+    public Timing getTimeToVisible() {
+        return mTimeToVisible.snapshot();
+    }
+
+    /**
+     * Returns how long Bubbles stayed visible.
+     */
+    @NonNull
+    public Timing getVisibleDuration() {
+        return mVisible.snapshot();
+    }
+
+    /**
+     * Returns how many Bubbles were dismissed with the given event, e.g.
+     * {@link Callback#DISMISS_EVENT_CONSECUTIVE} for the ones replaced by a more important
+     * Bubble.
+     */
+    public long getDismissCount(@Callback.DismissEvent int event) {
+        return event >= 0 && event < mDismissEvents.length() ? mDismissEvents.get(event) : 0;
+    }
+
+    /**
+     * Returns how many Bubbles were dropped without being shown.
+     */
+    public long getDropCount() {
+        return mDropCount.get();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        mInflate.reset();
+        mQueueWait.reset();
+        mTimeToVisible.reset();
+        mVisible.reset();
+        for (int i = 0; i < mDismissEvents.length(); i++) {
+            mDismissEvents.set(i, 0);
+        }
+        mDropCount.set(0);
+    }
+
+    /**
+     * Count, total and maximum of a duration, at the time it was read.
+     */
+    public static final class Timing {
+        private final long mCount;
+        private final long mTotalMs;
+        private final long mMaxMs;
+
+        Timing(long count, long totalMs, long maxMs) {
+            mCount = count;
+            mTotalMs = totalMs;
+            mMaxMs = maxMs;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotalMs() {
+            return mTotalMs;
+        }
+
+        public long getMaxMs() {
+            return mMaxMs;
+        }
+
+        /**
+         * Returns the mean duration, or 0 if nothing was recorded.
+         */
+        public double getMeanMs() {
+            return mCount == 0 ? 0 : (double) mTotalMs / mCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Timing{count=" + mCount + ", mean=" + getMeanMs() + "ms, max=" + mMaxMs
+                    + "ms}";
+        }
+    }
+
+    private static final class Stat {
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void add(long value) {
+            mCount.incrementAndGet();
+            mTotal.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Retry until the maximum is up to date
+            }
+        }
+
+        Timing snapshot() {
+            return new Timing(mCount.get(), mTotal.get(), mMax.get());
+        }
+
+        void reset() {
+            mCount.set(0);
+            mTotal.set(0);
+            mMax.set(0);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package orientsec.bubble;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.text.SpannableString;
+import android.text.TextPaint;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.DimenRes;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.WeakHashMap;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Measures and shapes the title and content of a {@link Bubble} ahead of time, so the main
+ * thread only has to apply the result when the Bubble is shown.
+ * <p>
+ * Get the text parameters on the main thread with {@link #getTitleParams(Context)} or
+ * {@link #getContentParams(Context)}, then call
+ * {@link #precompute(PrecomputedTextCompat.Params, CharSequence)} with them on a background
+ * thread, and pass the result to {@link Bubble#setTitle(CharSequence)} or
+ * {@link Bubble#setContent(CharSequence)}. If the text turns out to have been measured with
+ * parameters that don't match the view (e.g. the font scale changed in between), it is
+ * measured again on the main thread as plain text.
+ * <p>
+ * The parameters are read once per Context and configuration from text views inflated for the
+ * purpose, and cached.
+ */
+public final class BubbleText {
+
+    // The parameters of each Context, main thread only
+    private static final WeakHashMap<Context, Params> sParams = new WeakHashMap<>();
+
+    private BubbleText() {
+    }
+
+    /**
+     * Returns the text parameters of the title of a Bubble shown with {@code context}, which
+     * should be the Activity so its theme is applied.
+     */
+    @MainThread
+    @NonNull
+    public static PrecomputedTextCompat.Params getTitleParams(@NonNull Context context) {
+        return getParams(context).title;
+    }
+
+    /**
+     * Returns the text parameters of the content of a Bubble shown with {@code context}, which
+     * should be the Activity so its theme is applied.
+     */
+    @MainThread
+    @NonNull
+    public static PrecomputedTextCompat.Params getContentParams(@NonNull Context context) {
+        return getParams(context).content;
+    }
+
+    private static Params getParams(Context context) {
+        final Configuration configuration = context.getResources().getConfiguration();
+        Params params = sParams.get(context);
+        if (params == null || !params.configuration.equals(configuration)) {
+            params = new Params(context, configuration);
+            sParams.put(context, params);
+        }
+        return params;
+    }
+
+    /**
+     * Measures a title or a content with the parameters returned by
+     * {@link #getTitleParams(Context)} or {@link #getContentParams(Context)}. Should be called
+     * on a background thread.
+     */
+    @WorkerThread
+    @NonNull
+    public static PrecomputedTextCompat precompute(@NonNull PrecomputedTextCompat.Params params,
+                                                   @NonNull CharSequence text) {
+        return PrecomputedTextCompat.create(text, params);
+    }
+
+    /**
+     * The text parameters of a Context, for the configuration they were read in.
+     */
+    private static final class Params {
+        final Configuration configuration;
+        final PrecomputedTextCompat.Params title;
+        final PrecomputedTextCompat.Params content;
+
+        Params(Context context, Configuration configuration) {
+            this.configuration = new Configuration(configuration);
+            // Inflated by the inflater of the Bubbles, so the typeface, letter spacing and line
+            // breaking settings are the ones of their text views
+            final View probe = LayoutInflater.from(context)
+                    .inflate(R.layout.bubble_text_probe, null, false);
+            title = TextViewCompat.getTextMetricsParams(
+                    (TextView) probe.findViewById(R.id.tv_title));
+            content = TextViewCompat.getTextMetricsParams(
+                    (TextView) probe.findViewById(R.id.tv_content));
+        }
+    }
+
+    /**
+     * Returns a paint set up like the one of a TextView with the given text size.
+     */
+    static TextPaint newPaint(Context context, @DimenRes int textSize) {
+        final TextPaint paint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        paint.density = context.getResources().getDisplayMetrics().density;
+        paint.setTextSize(context.getResources().getDimension(textSize));
+        return paint;
+    }
+
+    /**
+     * Sets the text of a view, using the precomputed measurements if they match.
+     */
+    static void setText(@NonNull TextView view, @NonNull CharSequence text) {
+        if (text instanceof PrecomputedTextCompat) {
+            try {
+                TextViewCompat.setPrecomputedText(view, (PrecomputedTextCompat) text);
+                return;
+            } catch (IllegalArgumentException e) {
+                // Measured with other parameters than the view's, measure it again as a
+                // plain copy since the view would reject the precomputed text
+                text = new SpannableString(text);
+            }
+        }
+        view.setText(text);
+    }
+}
@@ -0,0 +1,183 @@
+package orientsec.bubble;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Limits how fast Bubbles are admitted to the queue, using a token bucket for the whole app and
+ * optionally one per coalescing key.
+ * <p>
+ * Each admitted {@link Bubble#show()} takes one token from the app bucket and, if the Bubble has
+ * a key, one from the bucket of that key. Buckets refill continuously and hold at most their
+ * burst size. A Bubble that finds an empty bucket is either dropped or deferred until a token is
+ * available, depending on the policy.
+ *
+ * @see Bubble#setThrottle(BubbleThrottle)
+ */
+public final class BubbleThrottle {
+
+    /**
+     * Per-key buckets are forgotten, least recently used first, above this many keys.
+     */
+    private static final int MAX_KEYS = 64;
+
+    private final TokenBucket mBucket;
+    @Constant.ThrottlePolicy
+    private final int mPolicy;
+
+    private int mKeyBurstSize;
+    private float mKeyRatePerSecond;
+    private final Map<String, TokenBucket> mKeyBuckets =
+            new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                    return size() > MAX_KEYS;
+                }
+            };
+
+    private volatile long mAdmittedCount;
+    private volatile long mDeferredCount;
+    private volatile long mDroppedCount;
+
+    /**
+     * @param burstSize     How many Bubbles may be admitted at once.
+     * @param ratePerSecond How many Bubbles per second are admitted on average.
+     * @param policy        {@link Constant#THROTTLE_DROP} or {@link Constant#THROTTLE_DEFER}.
+     */
+    public BubbleThrottle(int burstSize, float ratePerSecond,
+                          @Constant.ThrottlePolicy int policy) {
+        mBucket = new TokenBucket(burstSize, ratePerSecond);
+        mPolicy = policy;
+    }
+
+    /**
+     * Also limit Bubbles per coalescing key.
+     *
+     * @param burstSize     How many Bubbles with the same key may be admitted at once.
+     * @param ratePerSecond How many Bubbles per second are admitted on average for each key.
+     * @see Bubble#setKey(String)
+     */
+    @NonNull
+    public BubbleThrottle setPerKey(int burstSize, float ratePerSecond) {
+        // Validates the arguments
+        new TokenBucket(burstSize, ratePerSecond);
+        synchronized (mKeyBuckets) {
+            mKeyBurstSize = burstSize;
+            mKeyRatePerSecond = ratePerSecond;
+            mKeyBuckets.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Return the policy applied to Bubbles that find an empty bucket.
+     */
+    @Constant.ThrottlePolicy
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Return how many Bubbles have been admitted.
+     */
+    public long getAdmittedCount() {
+        return mAdmittedCount;
+    }
+
+    /**
+     * Return how many times a Bubble has been deferred.
+     */
+    public long getDeferredCount() {
+        return mDeferredCount;
+    }
+
+    /**
+     * Return how many Bubbles have been dropped.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Takes the tokens for one Bubble if they are available.
+     *
+     * @return 0 if the Bubble is admitted, otherwise how many milliseconds to wait until it
+     * could be.
+     */
+    long tryAcquire(@Nullable String key, long now) {
+        synchronized (mKeyBuckets) {
+            TokenBucket keyBucket = null;
+            if (key != null && mKeyBurstSize > 0) {
+                keyBucket = mKeyBuckets.get(key);
+                if (keyBucket == null) {
+                    keyBucket = new TokenBucket(mKeyBurstSize, mKeyRatePerSecond);
+                    mKeyBuckets.put(key, keyBucket);
+                }
+            }
+            long delay = mBucket.delay(now);
+            if (keyBucket != null) {
+                delay = Math.max(delay, keyBucket.delay(now));
+            }
+            if (delay > 0) {
+                return delay;
+            }
+            mBucket.take();
+            if (keyBucket != null) {
+                keyBucket.take();
+            }
+            mAdmittedCount++;
+            return 0;
+        }
+    }
+
+    void onDeferred() {
+        mDeferredCount++;
+    }
+
+    void onDropped() {
+        mDroppedCount++;
+    }
+
+    /**
+     * A bucket holding at most {@code capacity} tokens and refilled at a constant rate.
+     */
+    static final class TokenBucket {
+        private final int mCapacity;
+        private final double mTokensPerMs;
+        private double mTokens;
+        private long mLastRefill = -1;
+
+        TokenBucket(int capacity, float ratePerSecond) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("burstSize < 1");
+            }
+            if (!(ratePerSecond > 0)) {
+                throw new IllegalArgumentException("ratePerSecond <= 0");
+            }
+            mCapacity = capacity;
+            mTokensPerMs = ratePerSecond / 1000d;
+            mTokens = capacity;
+        }
+
+        /**
+         * Refills the bucket and returns how long to wait for a whole token.
+         */
+        long delay(long now) {
+            if (mLastRefill >= 0 && now > mLastRefill) {
+                mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * mTokensPerMs);
+            }
+            mLastRefill = now;
+            if (mTokens >= 1) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - mTokens) / mTokensPerMs));
+        }
+
+        void take() {
+            mTokens -= 1;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package orientsec.bubble;
+
+import android.os.Build;
+
+import androidx.core.os.TraceCompat;
+
+import java.lang.reflect.Method;
+
+/**
+ * Emits the trace sections of the Bubble pipeline, visible in systrace and Perfetto. Off by
+ * default; while off, each call site costs a single volatile read.
+ * <p>
+ * Sections must be closed with the value returned when they were opened, so turning tracing
+ * on or off in between never leaves a section open:
+ * <pre>
+ * final boolean traced = BubbleTrace.begin("Bubble.make");
+ * try {
+ *     ...
+ * } finally {
+ *     BubbleTrace.end(traced);
+ * }
+ * </pre>
+ */
+final class BubbleTrace {
+
+    private static volatile boolean sEnabled;
+
+    // Async sections are only opened on the main thread, 0 means "not traced"
+    private static int sNextCookie = 1;
+
+    private static boolean sResolved;
+    private static Method sAsyncBegin;
+    private static Method sAsyncEnd;
+    private static long sTraceTagApp;
+
+    private BubbleTrace() {
+    }
+
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Opens a section on the current thread.
+     *
+     * @return Whether a section was opened, to pass to {@link #end(boolean)}.
+     */
+    static boolean begin(String name) {
+        if (!sEnabled) {
+            return false;
+        }
+        TraceCompat.beginSection(name);
+        return true;
+    }
+
+    static void end(boolean begun) {
+        if (begun) {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Opens an async section, which may end on another frame than the one it started in.
+     * Main thread only.
+     *
+     * @return The cookie to pass to {@link #endAsync(String, int)}, 0 if nothing was opened.
+     */
+    static int beginAsync(String name) {
+        if (!sEnabled || !resolve()) {
+            return 0;
+        }
+        final int cookie = sNextCookie++;
+        if (sNextCookie == 0) {
+            sNextCookie = 1;
+        }
+        invoke(sAsyncBegin, name, cookie);
+        return cookie;
+    }
+
+    static void endAsync(String name, int cookie) {
+        if (cookie != 0) {
+            invoke(sAsyncEnd, name, cookie);
+        }
+    }
+
+    /**
+     * Looks up the async trace methods, public since Q and hidden before.
+     */
+    private static boolean resolve() {
+        if (!sResolved) {
+            sResolved = true;
+            try {
+                final Class<?> trace = Class.forName("android.os.Trace");
+                if (Build.VERSION.SDK_INT >= 29) {
+                    sAsyncBegin = trace.getMethod("beginAsyncSection", String.class, int.class);
+                    sAsyncEnd = trace.getMethod("endAsyncSection", String.class, int.class);
+                } else if (Build.VERSION.SDK_INT >= 18) {
+                    sTraceTagApp = trace.getField("TRACE_TAG_APP").getLong(null);
+                    sAsyncBegin = trace.getMethod("asyncTraceBegin",
+                            long.class, String.class, int.class);
+                    sAsyncEnd = trace.getMethod("asyncTraceEnd",
+                            long.class, String.class, int.class);
+                }
+            } catch (Exception e) {
+                sAsyncBegin = null;
+                sAsyncEnd = null;
+            }
+        }
+        return sAsyncBegin != null;
+    }
+
+    private static void invoke(Method method, String name, int cookie) {
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                method.invoke(null, name, cookie);
+            } else {
+                method.invoke(null, sTraceTagApp, name, cookie);
+            }
+        } catch (Exception e) {
+            // Tracing is best effort, never let it break a Bubble
+        }
+    }
+}
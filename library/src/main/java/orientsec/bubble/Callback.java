@@ -31,9 +31,14 @@ public class Callback {
      * Indicates that the Bubble was dismissed from a new Bubble being shown.
      */
     public static final int DISMISS_EVENT_CONSECUTIVE = 4;
+    /**
+     * Indicates that the Bubble was dropped from a full queue, or by the throttle, before it
+     * was shown.
+     */
+    public static final int DISMISS_EVENT_DROPPED = 5;
 
     @IntDef({DISMISS_EVENT_SWIPE, DISMISS_EVENT_ACTION, DISMISS_EVENT_TIMEOUT,
-            DISMISS_EVENT_MANUAL, DISMISS_EVENT_CONSECUTIVE})
+            DISMISS_EVENT_MANUAL, DISMISS_EVENT_CONSECUTIVE, DISMISS_EVENT_DROPPED})
     @Retention(RetentionPolicy.SOURCE)
     @interface DismissEvent {
     }
@@ -44,8 +49,8 @@ public class Callback {
      *
      * @param event The event which caused the dismissal. One of either:
      *              {@link #DISMISS_EVENT_SWIPE}, {@link #DISMISS_EVENT_ACTION},
-     *              {@link #DISMISS_EVENT_TIMEOUT}, {@link #DISMISS_EVENT_MANUAL} or
-     *              {@link #DISMISS_EVENT_CONSECUTIVE}.
+     *              {@link #DISMISS_EVENT_TIMEOUT}, {@link #DISMISS_EVENT_MANUAL},
+     *              {@link #DISMISS_EVENT_CONSECUTIVE} or {@link #DISMISS_EVENT_DROPPED}.
      * @see BubbleLayout#dismiss()
      */
     public void onDismissed(@DismissEvent int event) {
@@ -2,15 +2,11 @@ package orientsec.bubble;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.IntRange;
-import androidx.interpolator.view.animation.FastOutSlowInInterpolator;
-import android.view.animation.Interpolator;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
 public class Constant {
-    static final Interpolator FAST_OUT_SLOW_IN_INTERPOLATOR = new FastOutSlowInInterpolator();
-
     @IntDef({LENGTH_INDEFINITE, LENGTH_SHORT, LENGTH_LONG})
     @IntRange(from = 1)
     @Retention(RetentionPolicy.SOURCE)
@@ -38,4 +34,209 @@ public class Constant {
      * @see BubbleLayout#setDuration
      */
     public static final int LENGTH_LONG = 0;
+
+    @IntDef({OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_LOWEST, OVERFLOW_REJECT})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface OverflowPolicy {
+    }
+
+    /**
+     * When the queue is full, drop the Bubble that has been waiting the longest.
+     *
+     * @see Bubble#setOverflowPolicy(int)
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+
+    /**
+     * When the queue is full, drop the Bubble with the lowest priority. If the new Bubble has a
+     * lower priority than every queued one, the new Bubble is dropped instead.
+     *
+     * @see Bubble#setOverflowPolicy(int)
+     */
+    public static final int OVERFLOW_DROP_LOWEST = 1;
+
+    /**
+     * When the queue is full, drop the new Bubble.
+     *
+     * @see Bubble#setOverflowPolicy(int)
+     */
+    public static final int OVERFLOW_REJECT = 2;
+
+    /**
+     * Priority of a Bubble that can wait behind everything else.
+     *
+     * @see Bubble#setPriority(int)
+     */
+    public static final int PRIORITY_LOW = -1;
+
+    /**
+     * Default priority of a Bubble.
+     *
+     * @see Bubble#setPriority(int)
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority of a Bubble that replaces any less important Bubble currently shown.
+     *
+     * @see Bubble#setPriority(int)
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    @IntDef({THROTTLE_DROP, THROTTLE_DEFER})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface ThrottlePolicy {
+    }
+
+    /**
+     * Dismiss a Bubble that exceeds the throttle with {@link Callback#DISMISS_EVENT_DROPPED}.
+     *
+     * @see BubbleThrottle
+     */
+    public static final int THROTTLE_DROP = 0;
+
+    /**
+     * Hold back a Bubble that exceeds the throttle until a token is available.
+     *
+     * @see BubbleThrottle
+     */
+    public static final int THROTTLE_DEFER = 1;
+
+    @IntDef({ANIMATION_MODE_STANDARD, ANIMATION_MODE_HARDWARE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface AnimationMode {
+    }
+
+    /**
+     * Animate the Bubble by updating its translation and redrawing it on every frame.
+     *
+     * @see BubbleLayout#setAnimationMode(int)
+     */
+    public static final int ANIMATION_MODE_STANDARD = 0;
+
+    /**
+     * Promote the Bubble to a hardware layer while it animates, so a frame that only moves the
+     * Bubble recomposites the cached layer instead of redrawing the view. The frames are still
+     * computed on the main thread, so this saves drawing work but doesn't help while the main
+     * thread is busy. Falls back to {@link #ANIMATION_MODE_STANDARD} before Lollipop or without
+     * hardware acceleration.
+     *
+     * @see BubbleLayout#setAnimationMode(int)
+     */
+    public static final int ANIMATION_MODE_HARDWARE = 1;
+
+    @IntDef({RENDER_MODE_VIEWS, RENDER_MODE_FLAT})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface RenderMode {
+    }
+
+    /**
+     * Render a Bubble with child views: an ImageView, two TextViews and an ImageButton laid
+     * out by a ConstraintLayout.
+     *
+     * @see Bubble#setRenderMode(int)
+     */
+    public static final int RENDER_MODE_VIEWS = 0;
+
+    /**
+     * Render a Bubble as a single view that measures and draws its icon, title, content and
+     * close glyph itself.
+     *
+     * @see Bubble#setRenderMode(int)
+     */
+    public static final int RENDER_MODE_FLAT = 1;
+
+    @IntDef({STACK_MODE_EXPANDED, STACK_MODE_COLLAPSED})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface StackMode {
+    }
+
+    /**
+     * List the visible Bubbles one below the other, newest on top.
+     *
+     * @see Bubble#setStackMode(int)
+     */
+    public static final int STACK_MODE_EXPANDED = 0;
+
+    /**
+     * Show the newest Bubble on top of the others, which peek out behind it.
+     *
+     * @see Bubble#setStackMode(int)
+     */
+    public static final int STACK_MODE_COLLAPSED = 1;
+
+    @IntDef({ANIMATION_LEVEL_FULL, ANIMATION_LEVEL_REDUCED, ANIMATION_LEVEL_NONE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface AnimationLevel {
+    }
+
+    /**
+     * Bubbles run their full entrance, exit and swipe animations.
+     *
+     * @see BubbleAnimationPolicy
+     */
+    public static final int ANIMATION_LEVEL_FULL = 0;
+
+    /**
+     * Bubbles run shorter animations, e.g. in power save mode or after dropping frames.
+     *
+     * @see BubbleAnimationPolicy
+     */
+    public static final int ANIMATION_LEVEL_REDUCED = 1;
+
+    /**
+     * Bubbles appear and disappear without animating.
+     *
+     * @see BubbleAnimationPolicy
+     */
+    public static final int ANIMATION_LEVEL_NONE = 2;
+
+    @IntDef({DISPLAY_MODE_DECOR, DISPLAY_MODE_PANEL})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface DisplayMode {
+    }
+
+    /**
+     * Add Bubbles to the decor view of the Activity window.
+     *
+     * @see Bubble#setDisplayMode(int)
+     */
+    public static final int DISPLAY_MODE_DECOR = 0;
+
+    /**
+     * Add Bubbles to a panel window of their own, stacked on top of the Activity window, so
+     * showing and hiding them never lays out the views of the Activity.
+     *
+     * @see Bubble#setDisplayMode(int)
+     */
+    public static final int DISPLAY_MODE_PANEL = 1;
+
+    @IntDef({SINK_CONFLATE_LATEST, SINK_BUFFER_BOUNDED, SINK_DROP_OLDEST})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface SinkStrategy {
+    }
+
+    /**
+     * Keep only the latest item that is waiting to be shown, replacing any older one. The
+     * upstream is never slowed down.
+     *
+     * @see BubbleSink
+     */
+    public static final int SINK_CONFLATE_LATEST = 0;
+
+    /**
+     * Keep up to the capacity of items waiting to be shown, and only request as many from the
+     * upstream as there is room for. Items pushed beyond that are dropped.
+     *
+     * @see BubbleSink
+     */
+    public static final int SINK_BUFFER_BOUNDED = 1;
+
+    /**
+     * Keep up to the capacity of items waiting to be shown, dropping the oldest one to make
+     * room for a new one. The upstream is never slowed down.
+     *
+     * @see BubbleSink
+     */
+    public static final int SINK_DROP_OLDEST = 2;
 }
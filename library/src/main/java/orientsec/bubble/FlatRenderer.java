@@ -0,0 +1,225 @@
+package orientsec.bubble;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import orientsec.bubble.library.R;
+
+/**
+ * Measures and draws the content of a {@link BubbleLayout} in
+ * {@link Constant#RENDER_MODE_FLAT}: icon, title, content and close glyph, laid out like
+ * {@code bubble_layout_content.xml} but without any child view.
+ * <p>
+ * Positions are relative to the content box of the host, i.e. inside its padding.
+ */
+final class FlatRenderer {
+
+    private static final int GAP_DP = 8;
+    private static final int CONTENT_MAX_LINES = 2;
+
+    private final View mHost;
+    private final TextPaint mTitlePaint;
+    private final TextPaint mContentPaint;
+    private final int mIconSize;
+    private final int mGap;
+    private final Drawable mClose;
+
+    private CharSequence mTitle = "";
+    private CharSequence mContent = "";
+    private int mContentMaxLines = CONTENT_MAX_LINES;
+    @Nullable
+    private Drawable mIcon;
+
+    private StaticLayout mTitleLayout;
+    private StaticLayout mContentLayout;
+    private int mLayoutWidth = -1;
+    private int mTitleLeft;
+    private int mContentTop;
+    private final Rect mCloseBounds = new Rect();
+    private final Rect mCloseHitBounds = new Rect();
+
+    FlatRenderer(@NonNull View host) {
+        mHost = host;
+        final Context context = host.getContext();
+        final float density = context.getResources().getDisplayMetrics().density;
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.bubble_icon_size);
+        mGap = Math.round(GAP_DP * density);
+
+        final int textColor = resolveTextColor(context);
+        mTitlePaint = BubbleText.newPaint(context, R.dimen.bubble_title_text_size);
+        mTitlePaint.setColor(textColor);
+        mContentPaint = BubbleText.newPaint(context, R.dimen.bubble_content_text_size);
+        mContentPaint.setColor(textColor);
+
+        mClose = ContextCompat.getDrawable(context, R.drawable.bubble_ic_close);
+        if (mClose != null) {
+            mClose.setCallback(host);
+        }
+    }
+
+    private static int resolveTextColor(Context context) {
+        final TypedArray a = context.obtainStyledAttributes(
+                new int[]{android.R.attr.textColorPrimary});
+        try {
+            return a.getColor(0, Color.BLACK);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    void setTitle(@NonNull CharSequence title) {
+        mTitle = title;
+        mLayoutWidth = -1;
+    }
+
+    @NonNull
+    CharSequence getTitle() {
+        return mTitle;
+    }
+
+    void setContent(@NonNull CharSequence content) {
+        mContent = content;
+        mLayoutWidth = -1;
+    }
+
+    @NonNull
+    CharSequence getContent() {
+        return mContent;
+    }
+
+    /**
+     * Set how many lines of content to show, or 0 for the default.
+     */
+    void setContentMaxLines(int maxLines) {
+        final int lines = maxLines > 0 ? maxLines : CONTENT_MAX_LINES;
+        if (mContentMaxLines != lines) {
+            mContentMaxLines = lines;
+            mLayoutWidth = -1;
+        }
+    }
+
+    void setIcon(@Nullable Drawable icon) {
+        if (mIcon == icon) {
+            return;
+        }
+        if (mIcon != null) {
+            mIcon.setCallback(null);
+        }
+        mIcon = icon;
+        if (icon != null) {
+            icon.setCallback(mHost);
+            icon.setBounds(0, 0, mIconSize, mIconSize);
+        }
+    }
+
+    @Nullable
+    Drawable getIcon() {
+        return mIcon;
+    }
+
+    boolean verifyDrawable(Drawable who) {
+        return who != null && (who == mIcon || who == mClose);
+    }
+
+    /**
+     * Lays out the content for the given width, reusing the previous text layouts if neither
+     * the width nor the text changed.
+     *
+     * @return The height of the content.
+     */
+    int measure(int width) {
+        if (width != mLayoutWidth) {
+            mLayoutWidth = width;
+            final int closeWidth = mClose != null ? mClose.getIntrinsicWidth() : 0;
+            final int closeHeight = mClose != null ? mClose.getIntrinsicHeight() : 0;
+            mCloseBounds.set(width - closeWidth, 0, width, closeHeight);
+            mCloseHitBounds.set(mCloseBounds);
+            mCloseHitBounds.inset(-mGap, -mGap);
+            if (mClose != null) {
+                mClose.setBounds(mCloseBounds);
+            }
+
+            mTitleLeft = mIconSize + mGap;
+            mTitleLayout = makeLayout(mTitle, mTitlePaint,
+                    Math.max(0, width - mTitleLeft - closeWidth), 1);
+            final int headerHeight = Math.max(Math.max(mIconSize, closeHeight),
+                    mGap + mTitleLayout.getHeight());
+
+            if (mContent.length() > 0) {
+                mContentTop = headerHeight + mGap;
+                mContentLayout = makeLayout(mContent, mContentPaint, width, mContentMaxLines);
+            } else {
+                mContentTop = headerHeight;
+                mContentLayout = null;
+            }
+        }
+        return mContentLayout != null
+                ? mContentTop + mContentLayout.getHeight() : mContentTop;
+    }
+
+    void draw(@NonNull Canvas canvas) {
+        if (mIcon != null) {
+            mIcon.draw(canvas);
+        }
+        if (mClose != null) {
+            mClose.draw(canvas);
+        }
+        if (mTitleLayout != null) {
+            canvas.save();
+            canvas.translate(mTitleLeft, mGap);
+            mTitleLayout.draw(canvas);
+            canvas.restore();
+        }
+        if (mContentLayout != null) {
+            canvas.save();
+            canvas.translate(0, mContentTop);
+            mContentLayout.draw(canvas);
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Returns true if the point, relative to the content box, hits the close glyph. The touch
+     * area extends a little around the glyph.
+     */
+    boolean isInClose(float x, float y) {
+        return mCloseHitBounds.contains((int) x, (int) y);
+    }
+
+    private static StaticLayout makeLayout(CharSequence text, TextPaint paint, int width,
+                                           int maxLines) {
+        if (Build.VERSION.SDK_INT >= 23) {
+            return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width)
+                    .setMaxLines(maxLines)
+                    .setEllipsize(TextUtils.TruncateAt.END)
+                    .build();
+        }
+        StaticLayout layout = new StaticLayout(text, paint, width,
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+        if (layout.getLineCount() <= maxLines) {
+            return layout;
+        }
+        // Older StaticLayouts can't limit the line count, ellipsize the last visible line
+        // ourselves
+        final int lastLineStart = layout.getLineStart(maxLines - 1);
+        final CharSequence lastLine = TextUtils.ellipsize(
+                text.subSequence(lastLineStart, text.length()), paint, width,
+                TextUtils.TruncateAt.END);
+        return new StaticLayout(TextUtils.concat(text.subSequence(0, lastLineStart), lastLine),
+                paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+    }
+}
@@ -0,0 +1,39 @@
+package orientsec.bubble;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Runs tasks on the main thread, timed with {@link SystemClock#uptimeMillis()}.
+ */
+final class MainThreadScheduler implements BubbleScheduler {
+
+    private final Looper mLooper = Looper.getMainLooper();
+    private final Handler mHandler = new Handler(mLooper);
+
+    @Override
+    public long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Looper.myLooper() == mLooper;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        mHandler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, Object token, long delayMillis) {
+        mHandler.postAtTime(task, token, SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    @Override
+    public void cancel(Object token) {
+        mHandler.removeCallbacksAndMessages(token);
+    }
+}
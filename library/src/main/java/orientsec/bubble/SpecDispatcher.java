@@ -0,0 +1,56 @@
+package orientsec.bubble;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects {@link BubbleSpec}s submitted from any thread and hands them to the main thread in
+ * batches, so a burst of submissions costs a single main-thread message.
+ */
+final class SpecDispatcher {
+
+    private static final ConcurrentLinkedQueue<PendingSpec> sPending =
+            new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean sScheduled = new AtomicBoolean();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static final Runnable sDrain = new Runnable() {
+        @Override
+        public void run() {
+            // Clear the flag first, so specs submitted while we drain schedule another pass
+            sScheduled.set(false);
+            PendingSpec pending;
+            while ((pending = sPending.poll()) != null) {
+                final Activity activity = pending.activity.get();
+                if (activity != null && !activity.isFinishing()) {
+                    Bubble.make(activity, pending.spec).show();
+                }
+            }
+        }
+    };
+
+    private SpecDispatcher() {
+    }
+
+    static void submit(Activity activity, BubbleSpec spec) {
+        sPending.offer(new PendingSpec(activity, spec));
+        if (sScheduled.compareAndSet(false, true)) {
+            sHandler.post(sDrain);
+        }
+    }
+
+    private static final class PendingSpec {
+        final WeakReference<Activity> activity;
+        final BubbleSpec spec;
+
+        PendingSpec(Activity activity, BubbleSpec spec) {
+            this.activity = new WeakReference<>(activity);
+            this.spec = spec;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package orientsec.bubble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BubbleManagerTest {
+
+    private static final int DURATION = 1000;
+
+    private VirtualScheduler mScheduler;
+    private BubbleManager mManager;
+    private ArrayList<FakeBubble> mShown;
+
+    @Before
+    public void setUp() {
+        mScheduler = new VirtualScheduler();
+        mManager = new BubbleManager(mScheduler);
+        mShown = new ArrayList<>();
+    }
+
+    private FakeBubble show(int priority) {
+        return show(mManager, priority, null);
+    }
+
+    private FakeBubble show(BubbleManager manager, int priority, String key) {
+        final FakeBubble bubble = new FakeBubble(manager, mScheduler, mShown);
+        manager.show(DURATION, priority, key, bubble);
+        mScheduler.runPending();
+        return bubble;
+    }
+
+    @Test
+    public void showsQueuedBubblesByPriorityThenInOrder() {
+        final FakeBubble current = show(Constant.PRIORITY_HIGH);
+        final FakeBubble low = show(Constant.PRIORITY_LOW);
+        final FakeBubble normal1 = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble normal2 = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble high = show(Constant.PRIORITY_HIGH);
+
+        mScheduler.advanceBy(10 * DURATION);
+
+        assertEquals(Arrays.asList(current, high, normal1, normal2, low), mShown);
+        assertEquals(Callback.DISMISS_EVENT_TIMEOUT, low.lastEvent);
+    }
+
+    @Test
+    public void showsUpToMaxVisibleAtOnce() {
+        mManager.setMaxVisible(2);
+        final FakeBubble first = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble second = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble third = show(Constant.PRIORITY_NORMAL);
+
+        assertTrue(mManager.isCurrent(first));
+        assertTrue(mManager.isCurrent(second));
+        assertFalse(mManager.isCurrent(third));
+        assertTrue(mManager.isCurrentOrQueued(third));
+
+        mManager.setMaxVisible(3);
+        assertTrue(mManager.isCurrent(third));
+    }
+
+    @Test
+    public void dropOldestEvictsTheOldestQueuedBubble() {
+        mManager.setQueueCapacity(2);
+        mManager.setOverflowPolicy(Constant.OVERFLOW_DROP_OLDEST);
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble oldest = show(Constant.PRIORITY_HIGH);
+        final FakeBubble newer = show(Constant.PRIORITY_LOW);
+        final FakeBubble newest = show(Constant.PRIORITY_LOW);
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, oldest.lastEvent);
+        assertFalse(mManager.isCurrentOrQueued(oldest));
+        assertTrue(mManager.isCurrentOrQueued(newer));
+        assertTrue(mManager.isCurrentOrQueued(newest));
+    }
+
+    @Test
+    public void dropLowestEvictsTheLeastImportantQueuedBubble() {
+        mManager.setQueueCapacity(2);
+        mManager.setOverflowPolicy(Constant.OVERFLOW_DROP_LOWEST);
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble normal = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble low = show(Constant.PRIORITY_LOW);
+        final FakeBubble newNormal = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, low.lastEvent);
+        assertTrue(mManager.isCurrentOrQueued(normal));
+        assertTrue(mManager.isCurrentOrQueued(newNormal));
+
+        // Less important than anything queued, so it is the one dropped
+        final FakeBubble newLow = show(Constant.PRIORITY_LOW);
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, newLow.lastEvent);
+        assertTrue(mManager.isCurrentOrQueued(normal));
+        assertTrue(mManager.isCurrentOrQueued(newNormal));
+    }
+
+    @Test
+    public void rejectDropsTheNewBubble() {
+        mManager.setQueueCapacity(2);
+        mManager.setOverflowPolicy(Constant.OVERFLOW_REJECT);
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble first = show(Constant.PRIORITY_LOW);
+        final FakeBubble second = show(Constant.PRIORITY_LOW);
+        final FakeBubble rejected = show(Constant.PRIORITY_HIGH);
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, rejected.lastEvent);
+        assertEquals(0, rejected.showCount);
+        assertTrue(mManager.isCurrentOrQueued(first));
+        assertTrue(mManager.isCurrentOrQueued(second));
+    }
+
+    @Test
+    public void shrinkingTheQueueDropsTheLeastImportantBubbles() {
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble high = show(Constant.PRIORITY_HIGH);
+        final FakeBubble low = show(Constant.PRIORITY_LOW);
+
+        mManager.setQueueCapacity(1);
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, low.lastEvent);
+        assertTrue(mManager.isCurrentOrQueued(high));
+    }
+
+    @Test
+    public void higherPriorityPreemptsTheCurrentBubble() {
+        final FakeBubble normal = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble high = show(Constant.PRIORITY_HIGH);
+
+        assertEquals(Callback.DISMISS_EVENT_CONSECUTIVE, normal.lastEvent);
+        assertFalse(mManager.isCurrentOrQueued(normal));
+        assertTrue(mManager.isCurrent(high));
+        assertEquals(Arrays.asList(normal, high), mShown);
+    }
+
+    @Test
+    public void samePriorityWaitsForTheCurrentBubble() {
+        final FakeBubble first = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble second = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(0, first.dismissCount);
+        assertEquals(0, second.showCount);
+
+        mScheduler.advanceBy(DURATION);
+        assertEquals(Callback.DISMISS_EVENT_TIMEOUT, first.lastEvent);
+        assertTrue(mManager.isCurrent(second));
+    }
+
+    @Test
+    public void indefiniteBubbleIsPreemptedBySamePriority() {
+        final FakeBubble indefinite = new FakeBubble(mManager, mScheduler, mShown);
+        mManager.show(Constant.LENGTH_INDEFINITE, Constant.PRIORITY_NORMAL, null, indefinite);
+        mScheduler.runPending();
+        final FakeBubble next = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(Callback.DISMISS_EVENT_CONSECUTIVE, indefinite.lastEvent);
+        assertTrue(mManager.isCurrent(next));
+    }
+
+    @Test
+    public void preemptsTheLeastImportantOfSeveralCurrentBubbles() {
+        mManager.setMaxVisible(2);
+        final FakeBubble low = show(Constant.PRIORITY_LOW);
+        final FakeBubble normal = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble high = show(Constant.PRIORITY_HIGH);
+
+        assertEquals(Callback.DISMISS_EVENT_CONSECUTIVE, low.lastEvent);
+        assertEquals(0, normal.dismissCount);
+        assertTrue(mManager.isCurrent(normal));
+        assertTrue(mManager.isCurrent(high));
+    }
+
+    @Test
+    public void sameKeyUpdatesTheCurrentBubbleAndRestartsItsTimeout() {
+        final FakeBubble current = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+        mScheduler.advanceBy(DURATION - 100);
+
+        final FakeBubble update = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+
+        assertEquals(1, current.updateCount);
+        assertEquals(0, update.showCount);
+        assertFalse(mManager.isCurrentOrQueued(update));
+        mScheduler.advanceBy(DURATION - 100);
+        assertEquals(0, current.dismissCount);
+        mScheduler.advanceBy(100);
+        assertEquals(Callback.DISMISS_EVENT_TIMEOUT, current.lastEvent);
+    }
+
+    @Test
+    public void sameKeyUpdatesTheQueuedBubbleInPlace() {
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble queued = show(mManager, Constant.PRIORITY_NORMAL, "order");
+        final FakeBubble other = show(Constant.PRIORITY_NORMAL);
+
+        final FakeBubble update = show(mManager, Constant.PRIORITY_LOW, "order");
+
+        assertEquals(1, queued.updateCount);
+        assertFalse(mManager.isCurrentOrQueued(update));
+        mScheduler.advanceBy(10 * DURATION);
+        // Kept its place and its priority
+        assertEquals(queued, mShown.get(1));
+        assertEquals(other, mShown.get(2));
+        assertEquals(0, update.showCount);
+    }
+
+    @Test
+    public void sameKeyRaisesThePriorityOfTheQueuedBubble() {
+        show(Constant.PRIORITY_HIGH);
+        final FakeBubble other = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble queued = show(mManager, Constant.PRIORITY_LOW, "order");
+
+        show(mManager, Constant.PRIORITY_NORMAL, "order");
+        show(mManager, Constant.PRIORITY_HIGH, "order");
+
+        assertEquals(2, queued.updateCount);
+        mScheduler.advanceBy(10 * DURATION);
+        assertEquals(queued, mShown.get(1));
+        assertEquals(other, mShown.get(2));
+    }
+
+    @Test
+    public void differentKeysAreNotCoalesced() {
+        mManager.setMaxVisible(2);
+        final FakeBubble first = show(mManager, Constant.PRIORITY_NORMAL, "a");
+        final FakeBubble second = show(mManager, Constant.PRIORITY_NORMAL, "b");
+
+        assertEquals(0, first.updateCount);
+        assertTrue(mManager.isCurrent(first));
+        assertTrue(mManager.isCurrent(second));
+    }
+
+    @Test
+    public void dismissedBubbleIsNotUpdated() {
+        final FakeBubble current = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+        mManager.dismiss(current, Callback.DISMISS_EVENT_MANUAL);
+
+        final FakeBubble next = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+
+        assertEquals(0, current.updateCount);
+        assertTrue(mManager.isCurrent(next));
+    }
+
+    @Test
+    public void throttleDropsBubblesAboveTheRate() {
+        final BubbleThrottle throttle = new BubbleThrottle(1, 1f, Constant.THROTTLE_DROP);
+        mManager.setMaxVisible(2);
+        mManager.setThrottle(throttle);
+        final FakeBubble admitted = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble dropped = show(Constant.PRIORITY_NORMAL);
+
+        assertTrue(mManager.isCurrent(admitted));
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, dropped.lastEvent);
+        assertFalse(mManager.isCurrentOrQueued(dropped));
+        assertEquals(1, throttle.getDroppedCount());
+
+        // A token is back a second later
+        mScheduler.advanceBy(999);
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, show(Constant.PRIORITY_NORMAL).lastEvent);
+        mScheduler.advanceBy(1);
+        assertTrue(mManager.isCurrent(show(Constant.PRIORITY_NORMAL)));
+    }
+
+    @Test
+    public void throttleDefersBubblesUntilATokenIsBack() {
+        final BubbleThrottle throttle = new BubbleThrottle(1, 1f, Constant.THROTTLE_DEFER);
+        mManager.setMaxVisible(2);
+        mManager.setThrottle(throttle);
+        final FakeBubble admitted = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble deferred = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(0, deferred.showCount);
+        assertTrue(mManager.isCurrentOrQueued(deferred));
+        assertEquals(1, throttle.getDeferredCount());
+
+        mScheduler.advanceBy(999);
+        assertEquals(0, deferred.showCount);
+        mScheduler.advanceBy(1);
+        assertEquals(1, deferred.showCount);
+        assertEquals(1, admitted.showCount);
+    }
+
+    @Test
+    public void deferredBubblesAreAdmittedInOrder() {
+        mManager.setThrottle(new BubbleThrottle(1, 1f, Constant.THROTTLE_DEFER));
+        final FakeBubble first = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble second = show(Constant.PRIORITY_HIGH);
+        final FakeBubble third = show(Constant.PRIORITY_LOW);
+
+        mScheduler.advanceBy(10 * DURATION);
+
+        assertEquals(Arrays.asList(first, second, third), mShown);
+    }
+
+    @Test
+    public void throttleDropsTheOldestDeferredBubbleOnceFull() {
+        final BubbleThrottle throttle = new BubbleThrottle(1, 1f, Constant.THROTTLE_DEFER);
+        mManager.setQueueCapacity(1);
+        mManager.setThrottle(throttle);
+        show(Constant.PRIORITY_NORMAL);
+        final FakeBubble oldest = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble newest = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, oldest.lastEvent);
+        assertTrue(mManager.isCurrentOrQueued(newest));
+        assertEquals(1, throttle.getDroppedCount());
+    }
+
+    @Test
+    public void removingTheThrottleAdmitsDeferredBubbles() {
+        mManager.setMaxVisible(2);
+        mManager.setThrottle(new BubbleThrottle(1, 1f, Constant.THROTTLE_DEFER));
+        show(Constant.PRIORITY_NORMAL);
+        final FakeBubble deferred = show(Constant.PRIORITY_NORMAL);
+
+        mManager.setThrottle(null);
+        mScheduler.runPending();
+
+        assertTrue(mManager.isCurrent(deferred));
+    }
+
+    @Test
+    public void perKeyThrottleOnlyLimitsThatKey() {
+        mManager.setMaxVisible(3);
+        mManager.setThrottle(new BubbleThrottle(10, 10f, Constant.THROTTLE_DROP)
+                .setPerKey(1, 1f));
+        final FakeBubble quote = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+        mManager.dismiss(quote, Callback.DISMISS_EVENT_MANUAL);
+        mScheduler.runPending();
+        final FakeBubble sameKey = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+        final FakeBubble otherKey = show(mManager, Constant.PRIORITY_NORMAL, "order");
+
+        assertEquals(Callback.DISMISS_EVENT_DROPPED, sameKey.lastEvent);
+        assertTrue(mManager.isCurrent(otherKey));
+    }
+
+    @Test
+    public void coordinatorLimitsVisibleBubblesAcrossManagers() {
+        final BubbleCoordinator coordinator = new BubbleCoordinator(1);
+        final BubbleManager other = new BubbleManager(mScheduler);
+        mManager.setCoordinator(coordinator);
+        other.setCoordinator(coordinator);
+        final FakeBubble first = show(mManager, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble waiting = show(other, Constant.PRIORITY_HIGH, null);
+
+        // Never preempts the Bubble of another window
+        assertEquals(0, first.dismissCount);
+        assertEquals(0, waiting.showCount);
+        assertEquals(1, coordinator.getVisibleCount());
+
+        mScheduler.advanceBy(DURATION);
+        assertTrue(other.isCurrent(waiting));
+        assertEquals(1, coordinator.getVisibleCount());
+    }
+
+    @Test
+    public void coordinatorHandsSlotsOutInTheOrderTheyWereAskedFor() {
+        final BubbleCoordinator coordinator = new BubbleCoordinator(1);
+        final BubbleManager second = new BubbleManager(mScheduler);
+        final BubbleManager third = new BubbleManager(mScheduler);
+        mManager.setCoordinator(coordinator);
+        second.setCoordinator(coordinator);
+        third.setCoordinator(coordinator);
+        final FakeBubble first = show(mManager, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble fromSecond = show(second, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble fromThird = show(third, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble again = show(mManager, Constant.PRIORITY_NORMAL, null);
+
+        mScheduler.advanceBy(10 * DURATION);
+
+        assertEquals(Arrays.asList(first, fromSecond, fromThird, again), mShown);
+        assertEquals(0, coordinator.getVisibleCount());
+    }
+
+    @Test
+    public void raisingTheCoordinatorLimitShowsWaitingBubbles() {
+        final BubbleCoordinator coordinator = new BubbleCoordinator(1);
+        final BubbleManager other = new BubbleManager(mScheduler);
+        mManager.setCoordinator(coordinator);
+        other.setCoordinator(coordinator);
+        show(mManager, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble waiting = show(other, Constant.PRIORITY_NORMAL, null);
+
+        coordinator.setMaxVisible(2);
+
+        assertTrue(other.isCurrent(waiting));
+        assertEquals(2, coordinator.getVisibleCount());
+    }
+
+    @Test
+    public void removingTheCoordinatorShowsWaitingBubbles() {
+        final BubbleCoordinator coordinator = new BubbleCoordinator(1);
+        final BubbleManager other = new BubbleManager(mScheduler);
+        mManager.setCoordinator(coordinator);
+        other.setCoordinator(coordinator);
+        show(mManager, Constant.PRIORITY_NORMAL, null);
+        final FakeBubble waiting = show(other, Constant.PRIORITY_NORMAL, null);
+
+        other.setCoordinator(null);
+
+        assertTrue(other.isCurrent(waiting));
+    }
+
+    @Test
+    public void closeReleasesEveryBubbleAndItsSlot() {
+        final BubbleCoordinator coordinator = new BubbleCoordinator(1);
+        final BubbleManager other = new BubbleManager(mScheduler);
+        mManager.setCoordinator(coordinator);
+        other.setCoordinator(coordinator);
+        mManager.setThrottle(new BubbleThrottle(2, 1f, Constant.THROTTLE_DEFER));
+        final FakeBubble current = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble queued = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble deferred = show(Constant.PRIORITY_NORMAL);
+        final FakeBubble waiting = show(other, Constant.PRIORITY_NORMAL, null);
+
+        mManager.close();
+
+        assertTrue(mManager.isClosed());
+        assertEquals(1, current.releaseCount);
+        assertEquals(1, queued.releaseCount);
+        assertEquals(1, deferred.releaseCount);
+        assertEquals(0, current.dismissCount);
+        assertFalse(mManager.isCurrentOrQueued(current));
+        assertFalse(mManager.isCurrentOrQueued(queued));
+        assertFalse(mManager.isCurrentOrQueued(deferred));
+        // The slot went to the other window, and no timeout is left behind
+        assertTrue(other.isCurrent(waiting));
+        mManager.onShown(current);
+        mScheduler.advanceBy(10 * DURATION);
+        assertEquals(0, current.dismissCount);
+        assertEquals(0, deferred.showCount);
+    }
+
+    @Test
+    public void closedManagerReleasesNewBubblesRightAway() {
+        mManager.close();
+
+        final FakeBubble late = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(1, late.releaseCount);
+        assertEquals(0, late.showCount);
+        assertFalse(mManager.isCurrentOrQueued(late));
+    }
+
+    private FakeBubble showInGroup(String group) {
+        final FakeBubble bubble = new FakeBubble(mManager, mScheduler, mShown);
+        mManager.show(DURATION, Constant.PRIORITY_NORMAL, null, group, bubble);
+        mScheduler.runPending();
+        return bubble;
+    }
+
+    @Test
+    public void digestCollapsesABurstIntoTheFirstBubble() {
+        final BubbleDigest digest = new BubbleDigest(500, false);
+        mManager.setDigest(digest);
+        final FakeBubble summary = showInGroup("fills");
+        mScheduler.advanceBy(100);
+        final FakeBubble collapsed = showInGroup("orders");
+        final FakeBubble collapsedToo = showInGroup(null);
+
+        assertEquals(2, summary.collapseCount);
+        assertEquals(3, summary.lastCount);
+        // Not grouped, and no formatter: the Bubble titles itself
+        assertNull(summary.lastGroup);
+        assertNull(summary.lastTitle);
+        assertEquals(0, collapsed.showCount);
+        assertEquals(0, collapsedToo.showCount);
+        assertFalse(mManager.isCurrentOrQueued(collapsed));
+        assertEquals(2, digest.getCollapsedCount());
+    }
+
+    @Test
+    public void digestCollapsesIntoTheQueuedBubble() {
+        mManager.setDigest(new BubbleDigest(500, false));
+        final FakeBubble current = showInGroup(null);
+        mScheduler.advanceBy(DURATION - 100);
+        final FakeBubble queued = showInGroup(null);
+        assertEquals(0, queued.showCount);
+
+        showInGroup(null);
+
+        // The Bubble that started the burst is queued, the visible one is older than the window
+        assertEquals(0, current.collapseCount);
+        assertEquals(1, queued.collapseCount);
+    }
+
+    @Test
+    public void digestRestartsTheTimeoutOfAVisibleSummary() {
+        mManager.setDigest(new BubbleDigest(500, false));
+        final FakeBubble summary = showInGroup(null);
+        mScheduler.advanceBy(400);
+        showInGroup(null);
+
+        mScheduler.advanceBy(DURATION - 1);
+        assertEquals(0, summary.dismissCount);
+        mScheduler.advanceBy(1);
+        assertEquals(Callback.DISMISS_EVENT_TIMEOUT, summary.lastEvent);
+    }
+
+    @Test
+    public void groupedDigestOnlyCollapsesTheSameGroup() {
+        mManager.setMaxVisible(3);
+        mManager.setDigest(new BubbleDigest(500, true).setFormatter(
+                new BubbleDigest.Formatter() {
+                    @Override
+                    public CharSequence format(String group, int count) {
+                        return count + " " + group;
+                    }
+                }));
+        final FakeBubble fills = showInGroup("fills");
+        final FakeBubble orders = showInGroup("orders");
+        final FakeBubble ungrouped = showInGroup(null);
+        showInGroup("fills");
+
+        assertEquals(1, fills.collapseCount);
+        assertEquals("fills", fills.lastGroup);
+        assertEquals("2 fills", fills.lastTitle);
+        assertEquals(0, orders.collapseCount);
+        assertEquals(0, ungrouped.collapseCount);
+        assertTrue(mManager.isCurrent(orders));
+        assertTrue(mManager.isCurrent(ungrouped));
+    }
+
+    @Test
+    public void digestLetsBubblesAfterTheWindowThrough() {
+        mManager.setMaxVisible(2);
+        mManager.setDigest(new BubbleDigest(500, false));
+        final FakeBubble first = showInGroup(null);
+        mScheduler.advanceBy(501);
+
+        final FakeBubble second = showInGroup(null);
+
+        assertEquals(0, first.collapseCount);
+        assertTrue(mManager.isCurrent(second));
+    }
+
+    @Test
+    public void digestLeavesKeyedUpdatesAlone() {
+        mManager.setDigest(new BubbleDigest(500, false));
+        final FakeBubble current = show(mManager, Constant.PRIORITY_NORMAL, "quote");
+
+        show(mManager, Constant.PRIORITY_NORMAL, "quote");
+
+        assertEquals(1, current.updateCount);
+        assertEquals(0, current.collapseCount);
+    }
+
+    /**
+     * Runs the garbage collector until an object only weakly reachable is gone.
+     */
+    private static void collectGarbage() {
+        final WeakReference<Object> canary = new WeakReference<>(new Object());
+        for (int i = 0; i < 20 && canary.get() != null; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        assertNull(canary.get());
+    }
+
+    @Test
+    public void queuedBubblesReferencedByNothingElseAreStillShown() {
+        final FakeBubble current = show(Constant.PRIORITY_NORMAL);
+        for (int i = 0; i < 3; i++) {
+            // Like Bubble.make().show(), nothing keeps the Bubble
+            mManager.show(DURATION, Constant.PRIORITY_NORMAL, null,
+                    new FakeBubble(mManager, mScheduler, mShown));
+        }
+        mScheduler.runPending();
+
+        collectGarbage();
+        mScheduler.advanceBy(10 * DURATION);
+
+        assertEquals(4, mShown.size());
+        assertEquals(current, mShown.get(0));
+        for (int i = 0; i < mShown.size(); i++) {
+            assertEquals(Callback.DISMISS_EVENT_TIMEOUT, mShown.get(i).lastEvent);
+        }
+    }
+
+    @Test
+    public void deferredBubblesReferencedByNothingElseAreStillAdmitted() {
+        final BubbleThrottle throttle = new BubbleThrottle(1, 1f, Constant.THROTTLE_DEFER);
+        mManager.setMaxVisible(4);
+        mManager.setThrottle(throttle);
+        for (int i = 0; i < 4; i++) {
+            mManager.show(DURATION, Constant.PRIORITY_NORMAL, null,
+                    new FakeBubble(mManager, mScheduler, mShown));
+        }
+        mScheduler.runPending();
+        assertEquals(1, mShown.size());
+
+        collectGarbage();
+        mScheduler.advanceBy(3 * DURATION);
+
+        assertEquals(4, mShown.size());
+        assertEquals(3, throttle.getDeferredCount());
+        assertEquals(0, throttle.getDroppedCount());
+    }
+
+    @Test
+    public void moreImportantBubbleIsNotCollapsedAndPreemptsTheSummary() {
+        mManager.setDigest(new BubbleDigest(500, false));
+        final FakeBubble summary = show(Constant.PRIORITY_LOW);
+        final FakeBubble collapsed = show(Constant.PRIORITY_LOW);
+        assertEquals(1, summary.collapseCount);
+        assertEquals(0, collapsed.showCount);
+
+        final FakeBubble important = show(Constant.PRIORITY_HIGH);
+
+        assertEquals(1, summary.collapseCount);
+        assertEquals(Callback.DISMISS_EVENT_CONSECUTIVE, summary.lastEvent);
+        assertTrue(mManager.isCurrent(important));
+    }
+
+    @Test
+    public void moreImportantBubbleIsNotCollapsedIntoAQueuedSummary() {
+        mManager.setDigest(new BubbleDigest(500, false));
+        show(Constant.PRIORITY_HIGH);
+        mScheduler.advanceBy(501);
+        final FakeBubble summary = show(Constant.PRIORITY_LOW);
+        assertEquals(0, summary.showCount);
+
+        final FakeBubble important = show(Constant.PRIORITY_NORMAL);
+
+        assertEquals(0, summary.collapseCount);
+        assertTrue(mManager.isCurrentOrQueued(important));
+        mScheduler.advanceBy(10 * DURATION);
+        assertEquals(important, mShown.get(1));
+        assertEquals(summary, mShown.get(2));
+    }
+}
@@ -0,0 +1,145 @@
+package orientsec.bubble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BubbleShowStateTest {
+
+    private BubbleShowState mState;
+
+    @Before
+    public void setUp() {
+        mState = new BubbleShowState();
+    }
+
+    @Test
+    public void runsThroughTheLifecycleInOrder() {
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+        assertTrue(mState.queue());
+        assertEquals(BubbleShowState.QUEUED, mState.get());
+        assertTrue(mState.attach());
+        assertEquals(BubbleShowState.ATTACHING, mState.get());
+        assertTrue(mState.enter(true));
+        assertEquals(BubbleShowState.ENTERING, mState.get());
+        assertTrue(mState.entered());
+        assertEquals(BubbleShowState.SHOWN, mState.get());
+        assertTrue(mState.exit());
+        assertEquals(BubbleShowState.EXITING, mState.get());
+        assertTrue(mState.hide());
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+    }
+
+    @Test
+    public void repeatedLayoutPassesStartTheEntranceOnce() {
+        mState.queue();
+        mState.attach();
+        assertTrue(mState.enter(true));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(mState.enter(true));
+        }
+        assertEquals(BubbleShowState.ENTERING, mState.get());
+
+        mState.entered();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(mState.enter(true));
+            assertFalse(mState.enter(false));
+        }
+        assertEquals(BubbleShowState.SHOWN, mState.get());
+
+        mState.exit();
+        assertFalse(mState.enter(true));
+        assertEquals(BubbleShowState.EXITING, mState.get());
+    }
+
+    @Test
+    public void layoutPassesBeforeAttachingAreIgnored() {
+        assertFalse(mState.enter(true));
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+        mState.queue();
+        assertFalse(mState.enter(true));
+        assertEquals(BubbleShowState.QUEUED, mState.get());
+    }
+
+    @Test
+    public void layoutPassesAfterHidingAreIgnored() {
+        mState.queue();
+        mState.attach();
+        mState.enter(false);
+        mState.hide();
+        assertFalse(mState.enter(true));
+        assertFalse(mState.enter(false));
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+    }
+
+    @Test
+    public void entersWithoutAnimationStraightToShown() {
+        mState.queue();
+        mState.attach();
+        assertTrue(mState.enter(false));
+        assertEquals(BubbleShowState.SHOWN, mState.get());
+        assertFalse(mState.entered());
+    }
+
+    @Test
+    public void reportsTheEndOfTheEntranceOnce() {
+        mState.queue();
+        mState.attach();
+        mState.enter(true);
+        assertTrue(mState.entered());
+        assertFalse(mState.entered());
+    }
+
+    @Test
+    public void attachesOncePerShow() {
+        mState.queue();
+        assertTrue(mState.attach());
+        assertFalse(mState.attach());
+        assertFalse(mState.queue());
+        assertEquals(BubbleShowState.ATTACHING, mState.get());
+    }
+
+    @Test
+    public void exitsOnceAndOnlyWhenShown() {
+        mState.queue();
+        assertFalse(mState.exit());
+        mState.attach();
+        assertFalse(mState.exit());
+        mState.enter(true);
+        assertFalse(mState.exit());
+        mState.entered();
+        assertTrue(mState.exit());
+        assertFalse(mState.exit());
+    }
+
+    @Test
+    public void hidesOnce() {
+        assertFalse(mState.hide());
+        mState.queue();
+        assertTrue(mState.hide());
+        assertFalse(mState.hide());
+    }
+
+    @Test
+    public void droppedWhileQueuedNeverAttaches() {
+        mState.queue();
+        mState.hide();
+        assertFalse(mState.attach());
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+    }
+
+    @Test
+    public void canBeShownAgainAfterReset() {
+        mState.queue();
+        mState.attach();
+        mState.enter(true);
+        mState.reset();
+        assertEquals(BubbleShowState.HIDDEN, mState.get());
+        assertTrue(mState.queue());
+        assertTrue(mState.attach());
+        assertTrue(mState.enter(true));
+    }
+}
@@ -0,0 +1,87 @@
+package orientsec.bubble;
+
+import java.util.List;
+
+/**
+ * Stands in for a {@link BubbleLayout}: reports itself shown as soon as it is asked to show,
+ * and hidden as soon as it is asked to dismiss, through the scheduler like the real view. Keeps
+ * track of what the manager asked of it.
+ * <p>
+ * Shared with the benchmarks, which build it from this source set.
+ */
+final class FakeBubble implements BubbleManager.Callback {
+
+    private final BubbleManager mManager;
+    private final BubbleScheduler mScheduler;
+    // Where every Bubble shown is appended, in order, if anywhere
+    private final List<FakeBubble> mShownLog;
+
+    int showCount;
+    int dismissCount;
+    int lastEvent = -1;
+    int updateCount;
+    int collapseCount;
+    int lastCount;
+    String lastGroup;
+    CharSequence lastTitle;
+    int releaseCount;
+
+    private final Runnable mShown = new Runnable() {
+        @Override
+        public void run() {
+            mManager.onShown(FakeBubble.this);
+        }
+    };
+
+    private final Runnable mHidden = new Runnable() {
+        @Override
+        public void run() {
+            mManager.onDismissed(FakeBubble.this);
+        }
+    };
+
+    FakeBubble(BubbleManager manager, BubbleScheduler scheduler) {
+        this(manager, scheduler, null);
+    }
+
+    FakeBubble(BubbleManager manager, BubbleScheduler scheduler, List<FakeBubble> shownLog) {
+        mManager = manager;
+        mScheduler = scheduler;
+        mShownLog = shownLog;
+    }
+
+    @Override
+    public void show() {
+        showCount++;
+        if (mShownLog != null) {
+            mShownLog.add(this);
+        }
+        mScheduler.post(mShown);
+    }
+
+    @Override
+    public void dismiss(int event) {
+        dismissCount++;
+        lastEvent = event;
+        mScheduler.post(mHidden);
+    }
+
+    @Override
+    public void update(BubbleManager.Callback source) {
+        updateCount++;
+    }
+
+    @Override
+    public void collapse(BubbleManager.Callback source, int count, String group,
+                         CharSequence title) {
+        collapseCount++;
+        lastCount = count;
+        lastGroup = group;
+        lastTitle = title;
+    }
+
+    @Override
+    public void release() {
+        releaseCount++;
+    }
+}
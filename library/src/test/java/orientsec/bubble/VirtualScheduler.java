@@ -0,0 +1,95 @@
+package orientsec.bubble;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the tasks of a {@link BubbleManager} on the thread that created it, on a virtual clock
+ * that only moves when told to. Not thread safe: everything must happen on that thread.
+ * <p>
+ * Shared with the benchmarks, which build it from this source set.
+ */
+final class VirtualScheduler implements BubbleScheduler {
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private final Thread mThread = Thread.currentThread();
+    private long mNow;
+    private long mSequence;
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, null, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, Object token, long delayMillis) {
+        mTasks.add(new Task(mNow + delayMillis, mSequence++, task, token));
+    }
+
+    @Override
+    public void cancel(Object token) {
+        final Iterator<Task> it = mTasks.iterator();
+        while (it.hasNext()) {
+            if (it.next().token == token) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks that are due, including the ones they post.
+     */
+    void runPending() {
+        advanceBy(0);
+    }
+
+    /**
+     * Moves the clock forward, running the tasks that come due in time order.
+     */
+    void advanceBy(long millis) {
+        final long target = mNow + millis;
+        Task task;
+        while ((task = mTasks.peek()) != null && task.time <= target) {
+            mTasks.poll();
+            mNow = Math.max(mNow, task.time);
+            task.runnable.run();
+        }
+        mNow = target;
+    }
+
+    int getPendingCount() {
+        return mTasks.size();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+        final Object token;
+
+        Task(long time, long sequence, Runnable runnable, Object token) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+            this.token = token;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}